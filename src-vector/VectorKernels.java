@@ -0,0 +1,72 @@
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * 
+ * @author Dalton He
+ * created 12-14-18
+ * 
+ */
+public class VectorKernels extends Kernels {
+    // Network kernels using the Vector API, with the widest vectors of the machine (e.g. 16
+    // shorts with AVX2, 32 with AVX-512). Needs --add-modules jdk.incubator.vector to compile
+    // and run. The remaining entries that do not fill a vector are done by the scalar kernels.
+    //
+    // The dot product multiplies in 16-bit lanes, which is exact because the clamped
+    // accumulator entries are below 256 and the weights are int8. The products are then
+    // widened to 32-bit lanes for the sum.
+    private static final VectorSpecies<Short>   S = ShortVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Byte>    B = VectorSpecies.of(byte.class,
+                                                    VectorShape.forBitSize(S.vectorBitSize() / 2));
+    private static final VectorSpecies<Integer> I = VectorSpecies.of(int.class, S.vectorShape());
+
+    public VectorKernels() {
+        if (S.length() < 8) throw new UnsupportedOperationException("vectors too small");
+    }
+
+    @Override
+    public String name() {
+        return "vector " + S.vectorBitSize() + "-bit";
+    }
+
+    @Override
+    public void add(short[] acc, int accOff, short[] weights, int wOff, int n) {
+        int i = 0;
+        for (int end = S.loopBound(n); i < end; i += S.length()) {
+            ShortVector a = ShortVector.fromArray(S, acc, accOff + i);
+            a.add(ShortVector.fromArray(S, weights, wOff + i)).intoArray(acc, accOff + i);
+        }
+        super.add(acc, accOff + i, weights, wOff + i, n - i);
+    }
+
+    @Override
+    public void sub(short[] acc, int accOff, short[] weights, int wOff, int n) {
+        int i = 0;
+        for (int end = S.loopBound(n); i < end; i += S.length()) {
+            ShortVector a = ShortVector.fromArray(S, acc, accOff + i);
+            a.sub(ShortVector.fromArray(S, weights, wOff + i)).intoArray(acc, accOff + i);
+        }
+        super.sub(acc, accOff + i, weights, wOff + i, n - i);
+    }
+
+    @Override
+    public int dot(short[] acc, int accOff, byte[] weights, int wOff, int n, int max) {
+        IntVector sum = IntVector.zero(I);
+        int i = 0;
+        for (int end = S.loopBound(n); i < end; i += S.length()) {
+            ShortVector a = ShortVector.fromArray(S, acc, accOff + i).max((short) 0)
+                                                                   .min((short) max);
+            ShortVector w = (ShortVector) ByteVector.fromArray(B, weights, wOff + i)
+                                                    .convertShape(VectorOperators.B2S, S, 0);
+            ShortVector p = a.mul(w);
+            sum = sum.add(p.convertShape(VectorOperators.S2I, I, 0))
+                     .add(p.convertShape(VectorOperators.S2I, I, 1));
+        }
+        return sum.reduceLanes(VectorOperators.ADD)
+               + super.dot(acc, accOff + i, weights, wOff + i, n - i, max);
+    }
+}
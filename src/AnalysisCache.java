@@ -0,0 +1,156 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 
+ * @author Dalton He
+ * created 12-10-18
+ * 
+ */
+public class AnalysisCache implements Types {
+    // The analysis cache keeps the results of deep searches in a memory-mapped file, so they
+    // survive restarts of the engine. The file starts with a header of 4 longs:
+    //     0  magic number, identifies the file as an analysis cache
+    //     1  zobrist key of the starting position, changes if the zobrist keys change
+    //     2  number of buckets
+    //     3  unused
+    // followed by the entries, in buckets of 4 entries with the same format as the
+    // transposition table (see TranspositionTable). The static evaluation of every entry is
+    // VALUE_NONE, because the file may be read with another evaluator (handcrafted or any
+    // network) than the one which wrote it. Several engine processes may map the same
+    // file. A writer in one process and readers in others need no locking, because mixed
+    // entries are detected by the key/data XOR check like in the transposition table.
+    private static final long MAGIC       = 0x534156414E544333L; // "SAVANTC3"
+    private static final int  HEADER      = 4;
+    private static final int  BUCKET_SIZE = 4;
+
+    private RandomAccessFile file;
+    private MappedByteBuffer buffer;
+    private LongBuffer table;
+    private int buckets;
+    private boolean readOnly;
+
+    /**
+     * Opens the analysis cache in the given file. If the file is not a valid cache, a new
+     * cache with the given size in MB is created in it, unless the cache is opened read-only.
+     * The size of an existing cache is kept.
+     */
+    public AnalysisCache(String path, int megabytes, boolean readOnly) throws IOException {
+        this.readOnly = readOnly;
+        file = new RandomAccessFile(path, readOnly ? "r" : "rw");
+        FileChannel channel = file.getChannel();
+        try {
+            long length = file.length();
+            boolean valid = false;
+            if (length >= 8 * HEADER) {
+                map(channel, 8 * HEADER);
+                valid = (   table.get(0) == MAGIC
+                         && table.get(1) == Zobrist.getKey(new Position())
+                         && length == fileSize((int) table.get(2)));
+            }
+
+            if (valid) buckets = (int) table.get(2);
+            else {
+                if (readOnly) throw new IOException("not a valid analysis cache: " + path);
+                buckets = (int) Math.max(1, ((long) megabytes << 20) / (8 * 2 * BUCKET_SIZE) - 1);
+                file.setLength(0);
+                file.setLength(fileSize(buckets));
+            }
+
+            map(channel, fileSize(buckets));
+            if (!valid) {
+                table.put(0, MAGIC);
+                table.put(1, Zobrist.getKey(new Position()));
+                table.put(2, buckets);
+            }
+        } catch (IOException ex) {
+            file.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Maps the first given number of bytes of the file.
+     */
+    private void map(FileChannel channel, long size) throws IOException {
+        buffer = channel.map(readOnly ? FileChannel.MapMode.READ_ONLY
+                                      : FileChannel.MapMode.READ_WRITE, 0, size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        table = buffer.asLongBuffer();
+    }
+
+    /**
+     * Returns the size in bytes of a cache file with the given number of buckets.
+     */
+    private static long fileSize(int buckets) {
+        return 8L * (HEADER + 2L * BUCKET_SIZE * buckets);
+    }
+
+    /**
+     * Returns the data word of the cache entry for the given zobrist key, or 0 if not found.
+     * The fields are read with the helpers of TranspositionTable.
+     */
+    public long get(long key) {
+        int bucket = bucketIndex(key);
+        for (int i = bucket; i < bucket + 2 * BUCKET_SIZE; i += 2) {
+            long data = table.get(i + 1);
+            if ((table.get(i) ^ data) == key) return data;
+        }
+        return 0;
+    }
+
+    /**
+     * Adds an entry to the cache. An existing entry for the same position is replaced if the
+     * new search was at least as deep. Otherwise the entry replaces the shallowest entry of
+     * the bucket, if that one is not deeper, so that the deepest results are kept.
+     */
+    public void add(long key, int move, int depth, int eval, int type) {
+        if (readOnly) return;
+        int bucket = bucketIndex(key);
+        int slot = bucket;
+        int shallowest = Integer.MAX_VALUE;
+        for (int i = bucket; i < bucket + 2 * BUCKET_SIZE; i += 2) {
+            long entry = table.get(i + 1);
+            int entryDepth;
+            if (entry == 0) entryDepth = Integer.MIN_VALUE;
+            else {
+                entryDepth = TranspositionTable.depth(entry);
+                if ((table.get(i) ^ entry) == key) {
+                    slot = i;
+                    shallowest = entryDepth;
+                    break;
+                }
+            }
+            if (entryDepth < shallowest) {
+                shallowest = entryDepth;
+                slot = i;
+            }
+        }
+        if (depth < shallowest) return;
+
+        long data = TranspositionTable.pack(move, depth, eval, type, VALUE_NONE);
+        table.put(slot, key ^ data);
+        table.put(slot + 1, data);
+    }
+
+    /**
+     * Returns the index of the first long of the bucket of the given zobrist key.
+     */
+    private int bucketIndex(long key) {
+        return HEADER + 2 * BUCKET_SIZE * (int) (((key >>> 31 & 0xFFFFFFFFL) * buckets) >>> 32);
+    }
+
+    /**
+     * Writes all changes to the file and closes it.
+     */
+    public void close() {
+        try {
+            if (!readOnly) buffer.force();
+            file.close();
+        } catch (IOException ex) {};
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ * 
+ * @author Dalton He
+ * created 12-15-18
+ * 
+ */
+public class AttackMap implements Types {
+    // The squares attacked by every knight, bishop, rook and queen of a position, computed in
+    // one pass at the start of the piece evaluation so that the evaluation terms need not look
+    // up attacks again. Like in the mobility evaluation, bishops x-ray through queens, and
+    // rooks through queens and friendly rooks. The array is allocated once and overwritten by
+    // every compute().
+    public final long[] attacks = new long[64]; // squares attacked by the piece on each square
+                                                // (undefined for empty squares, pawns and kings)
+
+    /**
+     * Computes the attacks of all knights, bishops, rooks and queens of the given position.
+     */
+    public void compute(Position pos) {
+        long[] pieceBB   = pos.pieceBB;
+        long occupied    = pos.sideBB[1];
+        long xray_bishop = occupied & ~(pieceBB[W_QUEEN + 6] | pieceBB[B_QUEEN + 6]);
+        long xray_rook_w = xray_bishop & ~pieceBB[W_ROOK + 6];
+        long xray_rook_b = xray_bishop & ~pieceBB[B_ROOK + 6];
+        for (long bb = pieceBB[W_KNIGHT + 6] | pieceBB[B_KNIGHT + 6]; bb != 0; bb &= bb - 1) {
+            int sq = Long.numberOfTrailingZeros(bb);
+            attacks[sq] = Bitboard.KNIGHT_ATTACKS[sq];
+        }
+        for (long bb = pieceBB[W_BISHOP + 6] | pieceBB[B_BISHOP + 6]; bb != 0; bb &= bb - 1) {
+            int sq = Long.numberOfTrailingZeros(bb);
+            attacks[sq] = Bitboard.bishopAttacks(sq, xray_bishop);
+        }
+        for (long bb = pieceBB[W_ROOK + 6]; bb != 0; bb &= bb - 1) {
+            int sq = Long.numberOfTrailingZeros(bb);
+            attacks[sq] = Bitboard.rookAttacks(sq, xray_rook_w);
+        }
+        for (long bb = pieceBB[B_ROOK + 6]; bb != 0; bb &= bb - 1) {
+            int sq = Long.numberOfTrailingZeros(bb);
+            attacks[sq] = Bitboard.rookAttacks(sq, xray_rook_b);
+        }
+        for (long bb = pieceBB[W_QUEEN + 6] | pieceBB[B_QUEEN + 6]; bb != 0; bb &= bb - 1) {
+            int sq = Long.numberOfTrailingZeros(bb);
+            attacks[sq] = Bitboard.queenAttacks(sq, occupied);
+        }
+    }
+
+    /**
+     * Returns the number of squares attacked by the piece on the given 0x88 board index which
+     * are not in the given excluded area.
+     */
+    public int mobility(int index, long excludedArea) {
+        return Long.bitCount(attacks[Bitboard.square(index)] & ~excludedArea);
+    }
+}
@@ -0,0 +1,208 @@
+import java.util.Random;
+
+/**
+ * 
+ * @author Dalton He
+ * created 12-08-18
+ * 
+ */
+public class Bitboard implements Types {
+    // Bitboards map each square of the board to one bit of a long. Squares are numbered from
+    // a8 (0) to h1 (63), in the same order as the 0x88 board indices.
+    //     A   B   C   D   E   F   G   H
+    // 8   0   1   2   3   4   5   6   7
+    // 7   8   9   10  11  12  13  14  15
+    // ...
+    // 1   56  57  58  59  60  61  62  63
+
+    public static final long[] KNIGHT_ATTACKS = new long[64];
+    public static final long[] KING_ATTACKS   = new long[64];
+    public static final long[] W_PAWN_ATTACKS = new long[64];
+    public static final long[] B_PAWN_ATTACKS = new long[64];
+
+    public static final long CENTER_FILES = 0x3C3C3C3C3C3C3C3CL; // files C to F
+    public static final long RANKS_1_TO_3 = 0xFFFFFF0000000000L;
+    public static final long RANKS_6_TO_8 = 0x0000000000FFFFFFL;
+    public static final long DARK_SQUARES; // squares with COLOR_LOOKUP 1
+
+    // Magic bitboard tables for sliding pieces. The attacks of a slider on a square are looked
+    // up by multiplying the occupied squares on its rays by a magic number, which maps every
+    // relevant occupancy to a unique index in the attack table.
+    private static final long[] ROOK_MASK     = new long[64];
+    private static final long[] ROOK_MAGIC    = new long[64];
+    private static final int[]  ROOK_SHIFT    = new int[64];
+    private static final int[]  ROOK_OFFSET   = new int[64];
+    private static final long[] BISHOP_MASK   = new long[64];
+    private static final long[] BISHOP_MAGIC  = new long[64];
+    private static final int[]  BISHOP_SHIFT  = new int[64];
+    private static final int[]  BISHOP_OFFSET = new int[64];
+    private static final long[] ROOK_TABLE    = new long[0x19000];
+    private static final long[] BISHOP_TABLE  = new long[0x1480];
+
+    static {
+        long dark = 0;
+        for (int sq = 0; sq < 64; sq++) {
+            KNIGHT_ATTACKS[sq] = slowAttacks(sq, KNIGHT_DELTA, -1L);
+            KING_ATTACKS[sq]   = slowAttacks(sq, KING_DELTA, -1L);
+            W_PAWN_ATTACKS[sq] = slowAttacks(sq, new int[] {-15, -17}, -1L);
+            B_PAWN_ATTACKS[sq] = slowAttacks(sq, new int[] { 15,  17}, -1L);
+            if (COLOR_LOOKUP[index(sq)] == 1) dark |= 1L << sq;
+        }
+        DARK_SQUARES = dark;
+
+        // A fixed seed makes the magics (and the time spent finding them) the same every run
+        Random random = new Random(1070372);
+        initMagics(ROOK_DELTA, ROOK_MASK, ROOK_MAGIC, ROOK_SHIFT, ROOK_OFFSET, ROOK_TABLE, random);
+        initMagics(BISHOP_DELTA, BISHOP_MASK, BISHOP_MAGIC, BISHOP_SHIFT, BISHOP_OFFSET,
+                   BISHOP_TABLE, random);
+    }
+
+    /**
+     * Returns the square of the given 0x88 board index.
+     */
+    public static int square(int index) {
+        return (index + (index & 7)) >> 1;
+    }
+
+    /**
+     * Returns the 0x88 board index of the given square.
+     */
+    public static int index(int sq) {
+        return sq + (sq & ~7);
+    }
+
+    /**
+     * Returns the bitboard with only the square of the given 0x88 board index set.
+     */
+    public static long bit(int index) {
+        return 1L << square(index);
+    }
+
+    /**
+     * Returns the squares attacked by a bishop on the given square.
+     */
+    public static long bishopAttacks(int sq, long occupied) {
+        return BISHOP_TABLE[BISHOP_OFFSET[sq]
+                            + (int) (((occupied & BISHOP_MASK[sq]) * BISHOP_MAGIC[sq])
+                                     >>> BISHOP_SHIFT[sq])];
+    }
+
+    /**
+     * Returns the squares attacked by a rook on the given square.
+     */
+    public static long rookAttacks(int sq, long occupied) {
+        return ROOK_TABLE[ROOK_OFFSET[sq]
+                          + (int) (((occupied & ROOK_MASK[sq]) * ROOK_MAGIC[sq])
+                                   >>> ROOK_SHIFT[sq])];
+    }
+
+    /**
+     * Returns the squares attacked by a queen on the given square.
+     */
+    public static long queenAttacks(int sq, long occupied) {
+        return bishopAttacks(sq, occupied) | rookAttacks(sq, occupied);
+    }
+
+    /**
+     * Returns the squares attacked by the given piece type (not a pawn) on the given square.
+     */
+    public static long attacks(int pieceType, int sq, long occupied) {
+        switch (pieceType) {
+        case KNIGHT: return KNIGHT_ATTACKS[sq];
+        case BISHOP: return bishopAttacks(sq, occupied);
+        case ROOK:   return rookAttacks(sq, occupied);
+        case QUEEN:  return queenAttacks(sq, occupied);
+        default:     return KING_ATTACKS[sq];
+        }
+    }
+
+    /**
+     * Returns the squares attacked by a pawn of the given side on the given square.
+     */
+    public static long pawnAttacks(int side, int sq) {
+        return (side == WHITE ? W_PAWN_ATTACKS[sq] : B_PAWN_ATTACKS[sq]);
+    }
+
+    /**
+     * Returns the squares reached from the given square with the given deltas, walking each
+     * delta until an occupied square is reached if the piece is a slider. Used to initialize
+     * the lookup tables.
+     */
+    private static long slowAttacks(int sq, int[] delta, long occupied) {
+        long attacks = 0;
+        for (int d : delta) {
+            int target = index(sq) + d;
+            while (Position.isLegalIndex(target)) {
+                attacks |= bit(target);
+                if ((occupied & bit(target)) != 0) break;
+                target += d;
+            }
+        }
+        return attacks;
+    }
+
+    /**
+     * Finds a magic number for each square and fills the attack table of a sliding piece with
+     * the given deltas.
+     */
+    private static void initMagics(int[] delta, long[] masks, long[] magics, int[] shifts,
+                                   int[] offsets, long[] table, Random random) {
+        long[] occupancy = new long[4096];
+        long[] reference = new long[4096];
+        int[]  epoch     = new int[4096];
+        int    attempt   = 0;
+        int    offset    = 0;
+
+        for (int sq = 0; sq < 64; sq++) {
+            // The edge squares of each ray do not affect the attacks, so they are not part of
+            // the relevant occupancy
+            long mask = 0;
+            for (int d : delta) {
+                int target = index(sq) + d;
+                while (Position.isLegalIndex(target + d)) {
+                    mask |= bit(target);
+                    target += d;
+                }
+            }
+            int bits = Long.bitCount(mask);
+            int size = 1 << bits;
+            masks[sq]   = mask;
+            shifts[sq]  = 64 - bits;
+            offsets[sq] = offset;
+
+            // Enumerate all subsets of the mask (Carry-Rippler trick)
+            long subset = 0;
+            for (int i = 0; i < size; i++) {
+                occupancy[i] = subset;
+                reference[i] = slowAttacks(sq, delta, subset);
+                subset = (subset - mask) & mask;
+            }
+
+            // Try sparse random numbers until one maps every occupancy to an index without
+            // destructive collisions
+            while (true) {
+                long magic = random.nextLong() & random.nextLong() & random.nextLong();
+                if (Long.bitCount((mask * magic) >>> 56) < 6) continue;
+
+                attempt++;
+                boolean found = true;
+                for (int i = 0; i < size; i++) {
+                    int idx = (int) ((occupancy[i] * magic) >>> shifts[sq]);
+                    if (epoch[idx] < attempt) {
+                        epoch[idx] = attempt;
+                        table[offset + idx] = reference[i];
+                    }
+                    else if (table[offset + idx] != reference[i]) {
+                        found = false;
+                        break;
+                    }
+                }
+                if (found) {
+                    magics[sq] = magic;
+                    break;
+                }
+            }
+            offset += size;
+        }
+    }
+}
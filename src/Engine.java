@@ -1,10 +1,17 @@
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Queue;
 import java.util.Random;
 import java.util.Scanner;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * 
@@ -13,76 +20,253 @@ import java.util.Scanner;
  * 
  */
 public class Engine implements Types {
-    public static boolean uciMode;               // true if in UCI mode
-    public static boolean useBook;               // true if using native opening book
-    public static double timeLeft  = 10000;      // total time remaining
-    public static double increment = 0;          // increment per move
-    public static double timeForMove;            // time for this move
-
-    public static int currentDepth;              // current search depth
-    public static long startTime;                // time the search was started
-    public static boolean abortedSearch;         // true if the search was ended early
-
-    public static int[][] quietHistory;          // history heuristic move scores 
-        // quietHistory[pieceType][toIndex]
-    public static int[][] depthReduction;        // precomputed R values
+    public static final int[][] depthReduction;  // precomputed R values
         // depthReduction[ply][moveCount]
-    public static TranspositionTable main_TT;    // transposition table for main search
-    public static TranspositionTable qsearch_TT; // transposition table for quiescence search
-    public static TranspositionTable pv_TT;      // hash table for PV moves
-
-    public static List<Move> pv;                 // principal variation
-    public static Move bestMove;                 // best move so far
-    public static Move prevBestMove;             // last iteration's best move
-    public static int eval;                      // score of the position
-    public static long nodes;                    // number of nodes searched
-    
-    /**
-     * Initialization at the start of a new game.
-     */
-    public static void initialize() {
+
+    // Every Engine object is an independent search context that owns its hash tables and
+    // search state, so several engines can search at the same time in one process.
+    public PrintStream out = System.out;         // stream for search output
+    public boolean uciMode;                      // true if in UCI mode
+    public boolean useBook;                      // true if using native opening book
+    public double timeLeft  = 10000;             // total time remaining
+    public double increment = 0;                 // increment per move
+    public double timeForMove;                   // time for this move
+
+    public int threads = 1;                      // number of search threads
+    public boolean splitSearch;                  // true to split nodes (YBWC) instead of Lazy SMP
+    public int depthLimit = DEPTH_MAX;           // maximum search depth
+    public int multiPV = 1;                      // number of best moves to search and report
+    public int hashSize = HASH_DEFAULT;          // size of the transposition tables in MB
+
+    public int currentDepth;                     // current search depth
+    public long startTime;                       // time the search was started
+    public volatile boolean abortedSearch;       // true if the search was ended early
+    public volatile boolean pondering;           // true while searching on the opponent's time
+    public volatile boolean infinite;            // true if only stop() may end the search
+    public int pvIndex;                          // index of the PV currently searched
+    public List<Move> excludedMoves;             // root moves of the PVs already found
+
+    public SearchThread[] searchThreads;         // search threads, index 0 is the main thread
+    public ForkJoinPool splitPool;               // workers for split search (null if not used)
+    public Queue<SearchThread> splitWorkers;     // all workers created for split points
+    public Queue<SearchThread> idleWorkers;      // workers not busy at a split point
+    private Queue<Evaluate> idleEvaluators       // evaluators kept from earlier searches
+        = new ConcurrentLinkedQueue<Evaluate>();
+    public TranspositionTable main_TT;           // transposition table for main search
+    public TranspositionTable qsearch_TT;        // transposition table for quiescence search
+    public TranspositionTable pv_TT;             // hash table for PV moves
+    public EvalCache eval_cache;                 // static evaluations of recent positions
+    public AnalysisCache cache;                  // persistent cache of deep results, or null
+    public Network network;                      // evaluation network (null for handcrafted eval)
+
+    public List<Move> pv;                        // principal variation
+    public Move bestMove;                        // best move so far
+    public Move prevBestMove;                    // last iteration's best move
+    public int eval;                             // score of the position
+    public long nodes;                           // number of nodes searched
+    public long splits;                          // number of split points
+    public long splitCutoffs;                    // number of split points that failed high
+    public long staticEvals;                     // number of static evaluations needed
+    public long ttEvalHits;                      // static evaluations found in the hash table
+    public long evalCacheHits;                   // static evaluations found in the eval cache
+    public long lazyEvals;                       // static evaluations which skipped expensive terms
+
+    static {
         // Initialize LMR reduction factor table
         depthReduction = new int[64][64];
         for (int p = 1; p <= 63; p++)
             for (int mc = 1; mc <= 63; mc++)
                 depthReduction[p][mc] = (int) Math.round(Math.log(p) * Math.log(mc / 2));
+    }
+
+    /**
+     * Creates an engine with empty hash tables.
+     */
+    public Engine() {
+        initialize();
+    }
+    
+    /**
+     * Initialization at the start of a new game.
+     */
+    public void initialize() {
         // Initialize hash tables
-        main_TT    = new TranspositionTable(HASH_SIZE_TT);
-        qsearch_TT = new TranspositionTable(HASH_SIZE_TT);
-        pv_TT      = new TranspositionTable(HASH_SIZE_PV);
+        if (main_TT == null) {
+            main_TT    = new TranspositionTable(hashEntries());
+            qsearch_TT = new TranspositionTable(hashEntries());
+            pv_TT      = new TranspositionTable(HASH_SIZE_PV);
+            eval_cache = new EvalCache(EVAL_CACHE_SIZE);
+        }
+        else clearHash();
+    }
+
+    /**
+     * Sets the total size of the main and quiescence search tables in MB. The tables are
+     * reallocated, so all entries are lost.
+     */
+    public void setHashSize(int megabytes) {
+        hashSize = Math.max(1, Math.min(HASH_MAX, megabytes));
+        main_TT.resize(hashEntries());
+        qsearch_TT.resize(hashEntries());
+    }
+
+    /**
+     * Removes all entries from the hash tables.
+     */
+    public void clearHash() {
+        main_TT.clear();
+        qsearch_TT.clear();
+        pv_TT.clear();
+        eval_cache.clear();
+    }
+
+    /**
+     * Opens the analysis cache in the given file, closing the current one. An empty path
+     * only closes the current cache. See AnalysisCache for the meaning of the arguments.
+     */
+    public void openCache(String path, int megabytes, boolean readOnly) {
+        closeCache();
+        if (path.isEmpty()) return;
+        try {
+            cache = new AnalysisCache(path, Math.max(1, Math.min(CACHE_MAX, megabytes)), readOnly);
+        } catch (IOException ex) {
+            out.println((uciMode ? "info string " : "") + "cannot open analysis cache: "
+                        + ex.getMessage());
+        }
+    }
+
+    /**
+     * Writes the analysis cache to its file and closes it.
+     */
+    public void closeCache() {
+        if (cache == null) return;
+        cache.close();
+        cache = null;
+    }
+
+    /**
+     * Loads the evaluation network from the given file. An empty path switches back to the
+     * handcrafted evaluation. The hash tables are cleared, because the static evaluations
+     * stored in them are no longer valid.
+     */
+    public void loadNetwork(String path) {
+        network = null;
+        if (!path.isEmpty()) {
+            try {
+                network = new Network(path);
+                out.println((uciMode ? "info string " : "") + "loaded network " + path + " ("
+                            + network + ")");
+            } catch (IOException ex) {
+                out.println((uciMode ? "info string " : "") + "cannot load network: "
+                            + ex.getMessage());
+            }
+        }
+        clearHash();
+    }
+
+    /**
+     * Returns the number of entries of the main and quiescence search tables. Each table gets
+     * half of the hash size, and an entry takes 16 bytes.
+     */
+    private int hashEntries() {
+        return (int) (((long) hashSize << 20) / 2 / 16);
     }
     
     /**
      * Initialization at the start of a new search.
      */
-    public static void initSearch() {
+    public void initSearch() {
         abortedSearch = false;
-        quietHistory  = new int[13][120];
         pv            = new ArrayList<Move>();
         bestMove      = null;
         prevBestMove  = null;
         eval          = 0;
         nodes         = 0;
+        splits        = 0;
+        splitCutoffs  = 0;
+        staticEvals   = 0;
+        ttEvalHits    = 0;
+        evalCacheHits = 0;
+        lazyEvals     = 0;
+        splitWorkers  = new ConcurrentLinkedQueue<SearchThread>();
+        idleWorkers   = new ConcurrentLinkedQueue<SearchThread>();
         main_TT.update();
+        qsearch_TT.update();
         pv_TT.clear();
     }
 
     /**
      * Searches the given position and reports the expected line and score.
      */
-    public static void search(Position pos) {
+    public void search(Position pos) {
         initSearch();
+        think(pos);
+    }
 
+    /**
+     * Starts searching the given position on a new thread, which runs the given action once
+     * the search has finished. If the engine is pondering, the search result is held back
+     * until ponderHit() or stop() is called, and in an infinite search until stop() is
+     * called. stop() may be called as soon as this method returns.
+     */
+    public Thread startSearch(Position pos, Runnable whenDone) {
+        initSearch();
+        Thread thread = new Thread(() -> {
+            think(pos);
+            waitForRelease();
+            whenDone.run();
+        });
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * The opponent played the expected move while we were pondering. The search goes on
+     * with all of its work so far, but from now on under the normal time control.
+     */
+    public synchronized void ponderHit() {
+        startTime = System.currentTimeMillis();
+        pondering = false;
+        notifyAll();
+    }
+
+    /**
+     * Stops the search as soon as possible.
+     */
+    public synchronized void stop() {
+        abortedSearch = true;
+        pondering     = false;
+        infinite      = false;
+        notifyAll();
+    }
+
+    /**
+     * Blocks while the engine is pondering or searching infinitely.
+     */
+    private synchronized void waitForRelease() {
+        while (pondering || infinite) {
+            try {
+                wait();
+            } catch (InterruptedException ex) {};
+        }
+    }
+
+    /**
+     * The search itself, see search().
+     */
+    private void think(Position pos) {
         // If we have only one legal move, just play it and don't bother searching
         if (pos.genLegalMoves().size() == 1) {
             bestMove = pos.genLegalMoves().get(0);
             return;
         }
 
-        // Calculate the time to use for this move
-        if (timeLeft > increment) {
+        // Calculate the time to use for this move. Infinite and depth-limited searches are
+        // not timed.
+        if (infinite || depthLimit < DEPTH_MAX) timeForMove = Double.POSITIVE_INFINITY;
+        else if (timeLeft > increment) {
             // Spend more time out of the opening to figure out the position
-            timeForMove = (pos.stateHist.size() > 40 ? timeLeft / 20 : timeLeft / 10);
+            timeForMove = (pos.histPly > 40 ? timeLeft / 20 : timeLeft / 10);
             timeForMove += increment;
         }
         else timeForMove = timeLeft / 5;
@@ -90,463 +274,299 @@ public class Engine implements Types {
         // Start the timer
         startTime = System.currentTimeMillis();
 
-        // The iterative deepening loop
-        for (currentDepth = 1; currentDepth <= DEPTH_MAX; currentDepth++) {
-
-            // For the first few depths, start with an infinite search window.
-            if (currentDepth < 5)
-                eval = alphaBeta(pos, currentDepth, 0, -VALUE_INF, VALUE_INF, NODE_PV);
-
-            // For later depths, try an aspirated search with a window around the previous
-            // iteration's eval.
-            else {
-                int delta = INITIAL_WINDOW;
-                int alpha = Math.max(eval - delta, -VALUE_INF);
-                int beta  = Math.min(eval + delta, VALUE_INF);
-
-                // Start with a small aspiration window. If we fail high/low, re-search with a
-                // bigger window until we succeed.
-                while (true) {
-                    eval = alphaBeta(pos, currentDepth, 0, alpha, beta, NODE_PV);
-
-                    // Use last iteration's move if the search was terminated early
-                    if (abortedSearch) {
-                        bestMove = prevBestMove;
-                        break;
-                    }
-
-                    // In case of failing low/high increase aspiration window and re-search,
-                    // otherwise exit the loop.
-                    if (eval <= alpha) {
-                        beta = (alpha + beta) / 2;
-                        alpha = Math.max(eval - delta, -VALUE_INF);
-                    }
-                    else if (eval >= beta)
-                        beta = Math.min(eval + delta, VALUE_INF);
-                    else 
-                        break;
-
-                    // Increase the window width
-                    delta += delta / 4 + 5;			
-                    assert(alpha >= -VALUE_INF && beta <= VALUE_INF);
-                }
-            }
-
-            // Stop searching if time is up
-            if (abortedSearch) break;
-
-            // Check the timer
-            long endTime = System.currentTimeMillis();
-            double timeElapsed = endTime - startTime;
-            double decimalTime = timeElapsed / 1000.0;
-
-            // Update the pv and previous best move
-            pv = extractPV(pos);
-            //assert(bestMove.equals(pv.get(0)));
-            prevBestMove = bestMove;
-
-            // Update the GUI
-            String pvString = "";
-            if (uciMode) {
-                for (Move move : pv) pvString += move.longNot() + " ";
-                pvString = pvString.trim();
-                System.out.println(  "info score cp " + eval
-                                   + " depth " + currentDepth
-                                   + " nodes " + nodes
-                                   + " time "  + (int) timeElapsed
-                                   + " pv "    + pvString);
-            }
-            else {
-                for (Move move : pv) pvString += move.shortNot(pos.genLegalMoves()) + " ";
-                pvString = pvString.trim();
-                System.out.println(  "(d=" + currentDepth + ") "
-                                   + bestMove.shortNot(pos.genLegalMoves())
-                                   + " [" + eval / 100.0 + "] "
-                                   + pvString 
-                                   + " (n=" + nodes + " t=" + decimalTime + "s)");
+        // Split search: the main thread runs inside a fork/join pool, and nodes hand their
+        // remaining moves to the pool's idle workers once the first move has been searched.
+        if (splitSearch && threads > 1) {
+            if (splitPool == null || splitPool.getParallelism() != threads) {
+                if (splitPool != null) splitPool.shutdown();
+                splitPool = new ForkJoinPool(threads);
             }
-
-            // Stop searching if a forced mate was found or if the time left is probably not 
-            // enough to search the next depth
-            if (Math.abs(eval) > VALUE_MATETHRESH || timeElapsed >= timeForMove / 4) break;
         }
-    }
-
-    /**
-     * The alpha-beta recursive search.
-     * @param pos      - The position we are searching
-     * @param ply      - Remaining number of plies to search
-     * @param height   - Number of plies from the root position
-     * @param alpha    - Highest score so far (lower bound)
-     * @param beta     - Lowest score that the opponent can guarantee (upper bound)
-     * @param nodeType - Expected node type
-     * @return           Score of the position from the for the side to move
-     */
-    private static int alphaBeta(Position pos,
-                                 int ply,
-                                 int height,
-                                 int alpha,
-                                 int beta,
-                                 int nodeType) {        
-
-        assert(-VALUE_INF <= alpha && alpha < beta && beta <= VALUE_INF);
-        assert(nodeType == NODE_PV || nodeType == NODE_CUT || nodeType == NODE_ALL);
-
-        // Check if time is up
-        if (abortedSearch) return 0;
-        if (nodes % 1000 == 0) {
-            if ((System.currentTimeMillis() - startTime) > timeForMove) {
-                abortedSearch = true;
-                return 0;
-            }
-        }
-
-        // Increment the node count
-        nodes++;
-
-        // Enter quiescence search when we reach a leaf node
-        if (ply <= 0) return quiescence(pos, alpha, beta);
-
-        boolean rootNode = (nodeType == NODE_PV && height == 0);
-        int eval = 0;
-
-        if (!rootNode) {
-            // Check for draw
-            if (   pos.fiftyMoves >= 100
-                || pos.isRepeat()
-                || pos.insufficientMat())
-                return VALUE_DRAW;
-
-            // Mate distance pruning. If a shorter mate was found upward in the tree then there is
-            // no need to search further because we cannot possibly improve alpha. Same logic
-            // applies in the opposite condition of being mated (but with reversed signs).
-            // In this case return a fail-high score.
-            alpha = Math.max(matedScore(height), alpha);
-            beta  = Math.min(mateScore(height), beta);
-            if (alpha >= beta) return alpha;
-        }
-
-        // At non-PV nodes check for an early transposition table cutoff
-        HashtableEntry ttentry = main_TT.get(pos.key);
-        if (nodeType != NODE_PV && ttentry != null && ttentry.depth >= ply) {
-            if (    ttentry.type == BOUND_EXACT
-                || (ttentry.type == BOUND_UPPER && ttentry.eval * pos.toMove <= alpha)
-                || (ttentry.type == BOUND_LOWER && ttentry.eval * pos.toMove >= beta))
-                return ttentry.eval * pos.toMove;
+        else if (splitPool != null) {
+            splitPool.shutdown();
+            splitPool = null;
         }
 
-        // Extend the search if the side to move is in check
-        boolean inCheck = pos.inCheck(pos.toMove);
-        if (!rootNode && inCheck) ply++;
-
-        int standPat = 0;
-        if (!rootNode && !inCheck) {
-            // Static evaluation of the position
-            standPat = Evaluate.staticEval(pos) * pos.toMove;
-
-            // Reverse futility pruning (RFP)
-            if (   (ply == 1 && standPat >= beta + FUTILITY_MARGIN)
-                || (ply == 2 && standPat >= beta + EXT_FUTILITY_MARGIN))
-                return standPat;
-
-            // Limited razoring
-            if (   ply == 3
-                && standPat <= alpha - RAZOR_MARGIN
-                && pos.pieces.size() > 6)
-                ply--;
-
-            // Null move pruning
-            if (   pos.nullAllowed
-                && nodeType != NODE_PV
-                && standPat >= beta
-                && !pos.hasOnlyPawns(pos.toMove)) {
-
-                pos.makeNullMove();
-                
-                // Dynamic reduction factor based on ply and static evaluation
-                int R = (3 + ply / 4 + Math.min(2, (standPat - beta) / 200));
-                eval = -alphaBeta(pos, ply-R-1, height+1, -beta, -beta+1, -nodeType);
-
-                pos.unmakeNullMove();
-
-                // Fail-high
-                if (eval >= beta) {
-                    // Do not return unproven mate scores
-                    if (eval >= VALUE_MATETHRESH) eval = beta;
-                    
-                    if (Math.abs(beta) < VALUE_MATETHRESH) return eval;
-                }
-            }
+        // Lazy SMP: every thread searches its own copy of the position and the threads
+        // communicate only through the shared hash tables. The main thread runs the iterative
+        // deepening loop below, the helper threads run their own loops in the background.
+        searchThreads = new SearchThread[splitPool == null ? threads : 1];
+        for (int i = 0; i < searchThreads.length; i++)
+            searchThreads[i] = new SearchThread(this, i, pos);
+        Thread[] helpers = new Thread[searchThreads.length - 1];
+        for (int i = 1; i < searchThreads.length; i++) {
+            helpers[i - 1] = new Thread(searchThreads[i]);
+            helpers[i - 1].start();
         }
-
-        // Internal iterative deepening if we have no hash move
-        if (ply >= 6 && (ttentry == null || ttentry.move == 0)) {
-            eval = alphaBeta(pos, ply-5, height, alpha, beta, nodeType);
-            ttentry = main_TT.get(pos.key);
+        SearchThread main = searchThreads[0];
+
+        // MultiPV: every iteration searches the root once for each PV, excluding the root
+        // moves of the PVs found before. All passes share the hash tables, so each PV is
+        // refined from the previous iteration instead of being searched from scratch. A later
+        // pass may still score higher than an earlier one, so the PVs are ranked by score
+        // once the passes of an iteration are done.
+        int pvCount = Math.max(1, Math.min(multiPV, pos.genLegalMoves().size()));
+        int[] pvEvals = new int[pvCount];
+        List<List<Move>> lines = new ArrayList<List<Move>>();
+        excludedMoves = new ArrayList<Move>();
+
+        // If the position was analyzed in an earlier session, resume the analysis at the depth
+        // found in the analysis cache. The cached best move is played if the first iteration
+        // does not finish.
+        int startDepth = 1;
+        long cached = (cache == null ? 0 : cache.get(pos.key));
+        Move cachedMove = (cached == 0 ? null : getMoveObject(pos, TranspositionTable.move(cached)));
+        if (   pvCount == 1
+            && cachedMove != null
+            && TranspositionTable.type(cached) == BOUND_EXACT) {
+            startDepth   = Math.min(TranspositionTable.depth(cached), depthLimit);
+            pvEvals[0]   = TranspositionTable.eval(cached) * pos.toMove;
+            bestMove     = cachedMove;
+            prevBestMove = cachedMove;
+            pv_TT.add(pos.key, cachedMove.toInt());
         }
 
-        // Generate all moves and sort
-        List<Move> moveList = pos.genPseudoMoves(GEN_SEARCH);
-        sortMoves(pos, moveList, (ttentry == null ? 0 : ttentry.move));
-
-        Move bestMove  = null;
-        int  bestEval  = -VALUE_INF;
-        int  moveCount = 0;
-
-        // Move loop
-        for (Move move : moveList) {
-            pos.makeMove(move);
-
-            // Check for legality
-            if (pos.inCheck(-pos.toMove)) {
-                pos.unmakeMove(move);
-                continue;
+        // The iterative deepening loop
+        for (currentDepth = startDepth; currentDepth <= depthLimit; currentDepth++) {
+            excludedMoves.clear();
+            lines.clear();
+
+            for (pvIndex = 0; pvIndex < pvCount; pvIndex++) {
+                int depth = currentDepth, prevEval = pvEvals[pvIndex];
+                if (splitPool == null) pvEvals[pvIndex] = main.aspirationSearch(depth, prevEval);
+                else pvEvals[pvIndex] = splitPool.invoke(ForkJoinTask.adapt(() -> main.aspirationSearch(depth, prevEval)));
+
+                if (abortedSearch) break;
+
+                // The PV hash table entry of the root now holds the best move of this pass
+                List<Move> line = extractPV(pos);
+                if (line.isEmpty()) break;
+                excludedMoves.add(line.get(0));
+                lines.add(line);
             }
 
-            moveCount++;
-
-            boolean doFullDepthSearch;
-            boolean pruningOk =   (!rootNode
-                                && !inCheck
-                                && !pos.inCheck(pos.toMove) 
-                                && move.type != PROMOTION 
-                                && move.captured == 0);			   
-
-            // Futility pruning
-            if (   pruningOk
-                && Math.abs(alpha) < VALUE_MATETHRESH 
-                && Math.abs(beta)  < VALUE_MATETHRESH
-                && (   (ply == 1 && standPat <= alpha - FUTILITY_MARGIN)
-                    || (ply == 2 && standPat <= alpha - EXT_FUTILITY_MARGIN))) {
-                pos.unmakeMove(move);
-                continue;
+            // Rank the PVs found in this iteration and report them. The best move and the pv
+            // are taken from the top line.
+            if (!lines.isEmpty()) {
+                rankLines(lines, pvEvals);
+                nodes        = totalNodes();
+                eval         = pvEvals[0];
+                pv           = lines.get(0);
+                bestMove     = pv.get(0);
+                prevBestMove = bestMove;
+                for (int i = 0; i < lines.size(); i++) printPV(pos, lines.get(i), pvEvals[i], i);
             }
 
-            // Late move reductions (LMR)
-            if (pruningOk && ply >= 3 && moveCount > 1) {
-
-                // Dynamic reduction factor based on move count and ply
-                int R = depthReduction[Math.min(63, ply)][Math.min(63, moveCount)];
-
-                // Increase/decrease reduction based on node type
-                if      (nodeType == NODE_CUT) R += 2;
-                else if (nodeType == NODE_PV)  R--;
-                
-                R = Math.max(0, R);
-                eval = -alphaBeta(pos, ply-R-1, height+1, -alpha-1, -alpha, NODE_CUT);
+            // Stop searching if time is up, and use last iteration's move if the search was
+            // terminated before the first PV was found
+            if (abortedSearch) {
+                if (lines.isEmpty() && prevBestMove != null) bestMove = prevBestMove;
 
-                doFullDepthSearch = (eval > alpha && R != 0);
+                // If the search was stopped right away, any legal move is better than none
+                List<Move> legalMoves = pos.genLegalMoves();
+                if (bestMove == null && !legalMoves.isEmpty()) bestMove = legalMoves.get(0);
+                break;
             }
-            else doFullDepthSearch = (nodeType != NODE_PV || moveCount > 1);
-
-            // Full-depth PVS when LMR is skipped or fails high
-            if (doFullDepthSearch)
-                eval = -alphaBeta(pos, ply-1, height+1, -alpha-1, -alpha, 
-                                  nodeType == NODE_PV ? NODE_CUT : -nodeType);
-
-            // For PV nodes only, do a full-width search on the first move or after a fail-high
-            if (nodeType == NODE_PV && (moveCount == 1 || (eval > alpha && eval < beta)))
-                eval = -alphaBeta(pos, ply-1, height+1, -beta, -alpha, NODE_PV);
-
-            pos.unmakeMove(move);
-
-            // Check for a new best move
-            if (eval > bestEval) {
-                bestEval = eval;
-
-                if (eval > alpha) {
-                    bestMove = move;
-                    if (rootNode) Engine.bestMove = move;
-
-                    // Update PV hash table at PV nodes even after fail-high
-                    if (nodeType == NODE_PV) pv_TT.add(pos.key, bestMove.toInt());
-
-                    if (nodeType == NODE_PV && eval < beta)
-                        alpha = eval; // Update alpha. Always alpha < beta
-                    else {
-                        assert(eval >= beta); // Fail-high
-
-                        // Update quiet move sorting heuristics
-                        if (move.captured == 0) {
-                            
-                            // History heuristic
-                            quietHistory[move.piece + 6][move.target] += ply * ply;
-
-                            // Prevent history overflow; also has the effect of weighing recently
-                            // searched moves more heavily during move ordering
-                            if (quietHistory[move.piece + 6][move.target] >= HISTORY_MAX) {
-                                for (int i = 0; i < 13; i++)
-                                    for (int j = 0; j < 120; j++)
-                                        quietHistory[i][j] >>= 1;
-                            }
-                        }
-                        break; // cutoff
-                    }
-                }	
-            }
-        }
-
-        // No legal moves were found: return mate/stalemate score
-        if (moveCount == 0) bestEval = (inCheck ? matedScore(height) : VALUE_DRAW);
-
-        // If we pruned all moves without searching, return a fail-low score
-        if (bestEval == -VALUE_INF) bestEval = alpha;
 
-        // Update the transposition table
-        main_TT.add(pos.key, 
-                    (bestMove == null ? 0 : bestMove.toInt()), 
-                    ply, 
-                    bestEval * pos.toMove, 
-                    (bestEval >= beta ? BOUND_LOWER 
-                                      : (nodeType == NODE_PV && bestMove != null) ? BOUND_EXACT 
-                                                                                  : BOUND_UPPER));
-
-        assert(bestEval > -VALUE_INF && bestEval < VALUE_INF);
+            // Stop searching if a forced mate was found or if the time left is probably not 
+            // enough to search the next depth. The clock does not run while pondering.
+            double timeElapsed = System.currentTimeMillis() - startTime;
+            if (   Math.abs(eval) > VALUE_MATETHRESH 
+                || (!pondering && timeElapsed >= timeForMove / 4)) break;
+        }
 
-        return bestEval;
+        // Stop the helper threads
+        abortedSearch = true;
+        for (Thread helper : helpers) {
+            try {
+                helper.join();
+            } catch (InterruptedException ex) {};
+        }
+        nodes = totalNodes();
+
+        // Sum the static evaluation statistics and keep the evaluators for the next search
+        for (SearchThread thread : searchThreads) addEvalStats(thread);
+        for (SearchThread thread : splitWorkers)  addEvalStats(thread);
+        for (SearchThread thread : searchThreads) idleEvaluators.add(thread.evaluator);
+        for (SearchThread thread : splitWorkers)  idleEvaluators.add(thread.evaluator);
+
+        // Report the split search statistics
+        if (splitPool != null) {
+            for (SearchThread thread : searchThreads) splits       += thread.splits;
+            for (SearchThread thread : splitWorkers)  splits       += thread.splits;
+            for (SearchThread thread : splitWorkers)  splitCutoffs += thread.splitCutoffs;
+            out.println((uciMode ? "info string " : "") + "splits " + splits
+                        + " cutoffs " + splitCutoffs + " workers " + splitWorkers.size());
+        }
     }
 
     /**
-     * The quiescence search.
+     * Sorts the given PVs by their scores, best first. PVs with equal scores keep the order
+     * in which they were found.
      */
-    private static int quiescence(Position pos, int alpha, int beta) {
-        assert(-VALUE_INF <= alpha && alpha < beta && beta <= VALUE_INF);
-
-        // Check for draw
-        if (pos.insufficientMat()) return VALUE_DRAW;
-
-        // Transposition table lookup
-        HashtableEntry ttentry = qsearch_TT.get(pos.key);
-        if (ttentry != null) {
-            if (    ttentry.type == BOUND_EXACT
-                || (ttentry.type == BOUND_UPPER && ttentry.eval * pos.toMove <= alpha)
-                || (ttentry.type == BOUND_LOWER && ttentry.eval * pos.toMove >= beta))
-                return ttentry.eval * pos.toMove;
+    private static void rankLines(List<List<Move>> lines, int[] pvEvals) {
+        int count = lines.size();
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Integer.compare(pvEvals[b], pvEvals[a])); // Stable
+
+        List<List<Move>> sortedLines = new ArrayList<List<Move>>(count);
+        int[] sortedEvals = new int[count];
+        for (int i = 0; i < count; i++) {
+            sortedLines.add(lines.get(order[i]));
+            sortedEvals[i] = pvEvals[order[i]];
         }
+        lines.clear();
+        lines.addAll(sortedLines);
+        System.arraycopy(sortedEvals, 0, pvEvals, 0, count);
+    }
 
-        // Get a standing evaluation first
-        int standPat = Evaluate.staticEval(pos) * pos.toMove;
-        if (standPat >= beta) {
-            qsearch_TT.add(pos.key, 0, DEPTH_QS, standPat * pos.toMove, BOUND_LOWER);
-            return standPat;
+    /**
+     * Reports a PV found at the current depth, together with its score and its rank among
+     * the PVs of this depth (0 for the best).
+     */
+    private void printPV(Position pos, List<Move> line, int score, int rank) {
+        // Check the timer
+        long endTime = System.currentTimeMillis();
+        double timeElapsed = endTime - startTime;
+        double decimalTime = timeElapsed / 1000.0;
+
+        // Update the GUI
+        String pvString = "";
+        if (uciMode) {
+            for (Move move : line) pvString += move.longNot() + " ";
+            pvString = pvString.trim();
+            out.println(  "info "
+                               + (multiPV > 1 ? "multipv " + (rank + 1) + " " : "")
+                               + "score cp " + score
+                               + " depth " + currentDepth
+                               + " nodes " + nodes
+                               + " time "  + (int) timeElapsed
+                               + " pv "    + pvString);
         }
-        if (standPat > alpha) alpha = standPat;
-
-        // Generate captures and promotions only
-        List<Move> moveList = pos.genPseudoMoves(GEN_QSEARCH);
-        sortMoves(pos, moveList);
-
-        int bestMove = 0;
-
-        // Loop through all the moves
-        for (Move move : moveList) {
-
-            assert(move.captured != 0 || move.type == PROMOTION);
-
-            // Delta pruning
-            if (pos.pieces.size() > 6) {
-                int materialGain = VALUE_PIECE[Math.abs(move.captured)];
-                if (move.type == PROMOTION) materialGain += VALUE_PROMOTION;
-                if (standPat + materialGain <= alpha - DELTA_MARGIN) continue;
-            }
-
-            pos.makeMove(move);
-
-            // Check if the move leaves our king in check
-            if (pos.inCheck(-pos.toMove)) {
-                pos.unmakeMove(move);
-                continue;
-            }
-
-            int eval = -quiescence(pos, -beta, -alpha);
-
-            pos.unmakeMove(move);
-
-            if (eval >= beta) {
-                qsearch_TT.add(pos.key, move.toInt(), DEPTH_QS, eval * pos.toMove, BOUND_LOWER);
-                return eval;
-            }
-            if (eval > alpha) {
-                bestMove = move.toInt();
-                alpha = eval;
-            }
+        else {
+            for (Move move : line) pvString += move.shortNot(pos.genLegalMoves()) + " ";
+            pvString = pvString.trim();
+            out.println(  "(d=" + currentDepth + ") "
+                               + line.get(0).shortNot(pos.genLegalMoves())
+                               + " [" + score / 100.0 + "] "
+                               + pvString 
+                               + " (n=" + nodes + " t=" + decimalTime + "s)");
         }
-        // Update the transposition table
-        qsearch_TT.add(pos.key, bestMove, DEPTH_QS, alpha * pos.toMove, 
-                       (bestMove != 0 ? BOUND_EXACT : BOUND_UPPER));
+    }
 
-        assert(alpha > -VALUE_INF && alpha < VALUE_INF);
+    /**
+     * Adds the static evaluation statistics of the given thread to the engine's.
+     */
+    private void addEvalStats(SearchThread thread) {
+        staticEvals   += thread.staticEvals;
+        ttEvalHits    += thread.ttEvalHits;
+        evalCacheHits += thread.evalCacheHits;
+        lazyEvals     += thread.lazyEvals;
+    }
 
-        return alpha;
+    /**
+     * Returns the number of nodes searched by all threads.
+     */
+    public long totalNodes() {
+        long total = 0;
+        for (SearchThread thread : searchThreads) total += thread.nodes;
+        for (SearchThread thread : splitWorkers)  total += thread.nodes;
+        return total;
     }
 
     /**
-     * Sorts the given move list in order of most promising move to least promising move,
-     * in order to improve the performance of alpha-beta search.
+     * Returns an idle split point worker, set up with a copy of the given position. Workers
+     * are reused, so their positions are overwritten instead of allocated again.
      */
-    private static void sortMoves(Position pos, List<Move> moveList, int hashMove) {
-        // Go through the move list and assign priorities
-        for (Move move : moveList) {
-            if (move.toInt() == hashMove)
-                move.score = PRIORITY_HASH_MOVE;
-            else if (move.type == PROMOTION)
-                // range: 100 to 105
-                move.score = PRIORITY_PROMOTION + Math.abs(move.captured);
-            else if (move.captured != 0) {
-                // range: 54 (KxP) to 99 (PxQ)
-                int victim = Math.abs(move.captured);
-                if (victim == 3) victim = 2;
-                int attacker = Math.abs(move.piece);
-                move.score = PRIORITY_CAPTURE + 10 * victim - attacker; // MVV/LVA
-            }
-            else // History heuristic
-                move.hscore = quietHistory[move.piece + 6][move.target];
+    public SearchThread acquireWorker(Position pos) {
+        SearchThread worker = idleWorkers.poll();
+        if (worker == null) {
+            worker = new SearchThread(this, 0, pos);
+            splitWorkers.add(worker);
         }
-        Collections.sort(moveList);
+        else worker.pos.copyFrom(pos);
+        return worker;
     }
-    
+
     /**
-     * Move sort for quiescence search.
+     * Returns the evaluation breakdown of the given position (see Evaluate.trace()).
      */
-    private static void sortMoves(Position pos, List<Move> moveList) {
-        // Go through the move list and assign priorities
-        for (Move move : moveList) {
-            if (move.type == PROMOTION)
-                // range: 100 to 105
-                move.score = PRIORITY_PROMOTION + Math.abs(move.captured);
-            else {
-                // range: 54 (KxP) to 99 (PxQ)
-                int victim = Math.abs(move.captured);
-                if (victim == 3) victim = 2;
-                int attacker = Math.abs(move.piece);
-                move.score = PRIORITY_CAPTURE + 10 * victim - attacker; // MVV/LVA
-            }
-        }
-        Collections.sort(moveList);
+    public EvalTrace trace(Position pos) {
+        Evaluate evaluator = acquireEvaluator();
+        EvalTrace trace    = evaluator.trace(new Position(pos));
+        idleEvaluators.add(evaluator);
+        return trace;
     }
 
     /**
-     * Returns the value of mate in ply moves from the root.
+     * Returns a split point worker to the idle queue.
      */
-    private static int mateScore(int ply) {
-        return VALUE_MATE - ply;
+    public void releaseWorker(SearchThread worker) {
+        idleWorkers.add(worker);
     }
 
     /**
-     * Returns the value of being mated in ply moves from the root.
+     * Returns an evaluator for a new search thread. Evaluators of finished searches are
+     * reused, so their pawn and material tables stay warm and need not be reallocated.
      */
-    private static int matedScore(int ply) {
-        return -(VALUE_MATE - ply);
+    public Evaluate acquireEvaluator() {
+        Evaluate evaluator = idleEvaluators.poll();
+        if (evaluator == null) evaluator = new Evaluate();
+        evaluator.network = network;
+        return evaluator;
     }
-    
+
+    /**
+     * Searches the given position to the given depth with one thread and then with the given
+     * number of threads, each time starting with empty hash tables. Prints the time-to-depth
+     * speedup of the parallel search and its search overhead (extra nodes searched compared
+     * to the single-threaded search).
+     */
+    public static void parallelBench(Position pos, int depth, int threads, boolean splitSearch,
+                                     int hashSize) {
+        PrintStream silent = new PrintStream(OutputStream.nullOutputStream());
+        long[] time  = new long[2];
+        long[] nodes = new long[2];
+        for (int i = 0; i < 2; i++) {
+            Engine engine      = new Engine();
+            engine.out         = silent;
+            engine.depthLimit  = depth;
+            engine.threads     = (i == 0 ? 1 : threads);
+            engine.splitSearch = splitSearch;
+            engine.setHashSize(hashSize);
+            long start = System.currentTimeMillis();
+            engine.search(pos);
+            time[i]  = Math.max(1, System.currentTimeMillis() - start);
+            nodes[i] = engine.nodes;
+            if (i == 0) {
+                long evals = Math.max(1, engine.staticEvals);
+                System.out.println("static evals " + engine.staticEvals
+                                   + " tt hits " + String.format("%.1f%%", 100.0 * engine.ttEvalHits / evals)
+                                   + " cache hits " + String.format("%.1f%%", 100.0 * engine.evalCacheHits / evals)
+                                   + " lazy " + String.format("%.1f%%", 100.0 * engine.lazyEvals / evals));
+            }
+            if (engine.splitPool != null) {
+                engine.splitPool.shutdown();
+                System.out.println("splits " + engine.splits + " cutoffs " + engine.splitCutoffs);
+            }
+        }
+        System.out.println("threads 1: time " + time[0] + " nodes " + nodes[0]
+                           + " nps " + nodes[0] * 1000 / time[0]);
+        System.out.println("threads " + threads + ": time " + time[1] + " nodes " + nodes[1]
+                           + " nps " + nodes[1] * 1000 / time[1]);
+        System.out.println("speedup " + String.format("%.2f", time[0] / (double) time[1])
+                           + " overhead " + String.format("%.1f%%", 100.0 * (nodes[1] - nodes[0]) / nodes[0]));
+    }
+
     /**
      * Extracts the principal variation from the hash table and returns it as list of moves.
      */
-    public static List<Move> extractPV(Position pos) {
+    public List<Move> extractPV(Position pos) {
         List<Move> PV = new ArrayList<Move>();
-        HashtableEntry entry = pv_TT.get(pos.key);
-        while (entry != null && entry.move != 0 && PV.size() < DEPTH_MAX) {
-            Move move = getMoveObject(pos, entry.move);
+        long entry = pv_TT.get(pos.key);
+        while (TranspositionTable.move(entry) != 0 && PV.size() < DEPTH_MAX) {
+            Move move = getMoveObject(pos, TranspositionTable.move(entry));
             // In the rare case of a key collision the stored move may be invalid
             if (move == null) break;
 
@@ -566,6 +586,16 @@ public class Engine implements Types {
         return PV;
     }
 
+    /**
+     * Returns {@code true} if the given packed root move belongs to a PV already found in the current
+     * iteration, and should not be searched again.
+     */
+    public boolean isExcluded(int move) {
+        for (int i = 0; i < excludedMoves.size(); i++)
+            if (excludedMoves.get(i).pack() == move) return true;
+        return false;
+    }
+
     /**
      * Gets a move from the opening book (returns {@code null} if no move).
      */
@@ -629,15 +659,16 @@ public class Engine implements Types {
         // normal perft
         //if (depth == 0) return 1;*/
 
-        List<Move> moveList = pos.genLegalMoves();
+        int[] moves = new int[MAX_MOVES];
+        int count = pos.genPseudoMoves(GEN_ALL, moves, 0);
 
-        // bulk count
-        if (depth == 1) return moveList.size();
-
-        for (Move move : moveList) {
-            pos.makeMove(move);
-            nodes += perft(pos, depth - 1);
-            pos.unmakeMove(move);
+        for (int i = 0; i < count; i++) {
+            pos.makeMove(moves[i]);
+            if (!pos.inCheck(-pos.toMove)) {
+                // bulk count
+                nodes += (depth == 1 ? 1 : perft(pos, depth - 1));
+            }
+            pos.unmakeMove(moves[i]);
         }
 
         return nodes;
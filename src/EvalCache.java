@@ -0,0 +1,52 @@
+import java.util.Arrays;
+
+/**
+ * 
+ * @author Dalton He
+ * created 12-12-18
+ * 
+ */
+public class EvalCache implements Types {
+    // The eval cache keeps the static evaluations of recently evaluated positions. It is
+    // shared by all search threads without locking. Each entry is a single long holding the
+    // upper 48 bits of the zobrist key and the score (from white's perspective) in the lower
+    // 16 bits, so an entry is always written and read as a whole. The lower bits of the key
+    // select the entry, and entries are simply overwritten.
+    private static final long KEY_MASK = ~0xFFFFL;
+
+    private long[] table;
+    private int mask;
+
+    /**
+     * Creates an eval cache with the given number of entries (a power of 2, at most 65536 so
+     * that the index and the stored part of the key together cover the whole key).
+     */
+    public EvalCache(int size) {
+        table = new long[size];
+        mask  = size - 1;
+    }
+
+    /**
+     * Clears the eval cache.
+     */
+    public void clear() {
+        Arrays.fill(table, 0);
+    }
+
+    /**
+     * Returns the static evaluation of the position with the given zobrist key, or VALUE_NONE
+     * if not found.
+     */
+    public int get(long key) {
+        long entry = table[(int) key & mask];
+        if (entry != 0 && (entry & KEY_MASK) == (key & KEY_MASK)) return (short) entry;
+        return VALUE_NONE;
+    }
+
+    /**
+     * Adds the static evaluation of the position with the given zobrist key.
+     */
+    public void add(long key, int eval) {
+        table[(int) key & mask] = (key & KEY_MASK) | (eval & 0xFFFFL);
+    }
+}
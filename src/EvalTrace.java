@@ -0,0 +1,77 @@
+/**
+ * 
+ * @author Dalton He
+ * created 12-15-18
+ * 
+ */
+public class EvalTrace implements Types {
+    // Breakdown of one static evaluation by term, see Evaluate.trace(). The value of each side
+    // is from that side's perspective, and the total is white's value minus black's. All
+    // totals are from white's perspective.
+    public static final String[] TERMS = { "Material", "Imbalance", "PSQT", "Pawns", "Pieces",
+                                           "Mobility", "King safety" };
+    public static final int MATERIAL  = 0;
+    public static final int IMBALANCE = 1;
+    public static final int PSQT      = 2;
+    public static final int PAWNS     = 3;
+    public static final int PIECES    = 4;
+    public static final int MOBILITY  = 5;
+    public static final int KING      = 6;
+
+    public final double[][] white = new double[TERMS.length][2]; // [term][MG | EG]
+    public final double[][] black = new double[TERMS.length][2];
+    public final double[][] total = new double[TERMS.length][2];
+    public double weight_mg;     // middlegame weight of the phase (0 to 1)
+    public int scale;            // endgame scale factor, SCALE_NORMAL if not scaled
+    public int tempo;            // tempo bonus, from white's perspective
+    public boolean endgameRule;  // true if a special endgame rule replaced the evaluation
+    public int eval;             // handcrafted evaluation, from white's perspective
+    public int networkEval = VALUE_NONE; // network evaluation, if a network is loaded
+
+    /**
+     * Returns the total middlegame score of all terms.
+     */
+    public double totalMg() {
+        double sum = 0;
+        for (double[] term : total) sum += term[MG];
+        return sum;
+    }
+
+    /**
+     * Returns the total endgame score of all terms, before scaling.
+     */
+    public double totalEg() {
+        double sum = 0;
+        for (double[] term : total) sum += term[EG];
+        return sum;
+    }
+
+    /**
+     * Returns the breakdown as a table, with the scores in pawns.
+     */
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("        Term |    White    |    Black    |    Total\n");
+        sb.append("             |   MG    EG  |   MG    EG  |   MG    EG\n");
+        sb.append(" ------------+-------------+-------------+-------------\n");
+        for (int t = 0; t < TERMS.length; t++) {
+            sb.append(String.format("%12s |", TERMS[t]));
+            sb.append(String.format(" %5.2f %5.2f | %5.2f %5.2f |",
+                                    white[t][MG] / 100.0, white[t][EG] / 100.0,
+                                    black[t][MG] / 100.0, black[t][EG] / 100.0));
+            sb.append(String.format(" %5.2f %5.2f\n", total[t][MG] / 100.0, total[t][EG] / 100.0));
+        }
+        sb.append(" ------------+-------------+-------------+-------------\n");
+        sb.append(String.format("%12s |             |             | %5.2f %5.2f\n", "Total",
+                                totalMg() / 100.0, totalEg() / 100.0));
+        sb.append("\n");
+        sb.append(String.format("Phase: %.2f MG, %.2f EG\n", weight_mg, 1.0 - weight_mg));
+        sb.append("Endgame scale: " + scale + "/" + SCALE_NORMAL + "\n");
+        sb.append(String.format("Tempo: %.2f\n", tempo / 100.0));
+        if (endgameRule) sb.append("Special endgame rule applied, terms not used\n");
+        sb.append(String.format("Evaluation: %.2f (white side)\n", eval / 100.0));
+        if (networkEval != VALUE_NONE)
+            sb.append(String.format("Network evaluation: %.2f (white side)\n", networkEval / 100.0));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ * 
+ * @author Dalton He
+ * created 12-14-18
+ * 
+ */
+public class Kernels {
+    // Integer array kernels of the network evaluation. The scalar kernels below work on any
+    // JVM. If the Vector API (jdk.incubator.vector) is available, the kernels in src-vector
+    // are used instead, which process a whole vector register per operation. Both give
+    // identical results. Setting the property savant.kernels=scalar forces the scalar kernels.
+    public static final Kernels INSTANCE = load();
+
+    /**
+     * Returns the vector kernels if they can be loaded, otherwise the scalar kernels.
+     */
+    private static Kernels load() {
+        if ("scalar".equals(System.getProperty("savant.kernels"))) return new Kernels();
+        try {
+            return (Kernels) Class.forName("VectorKernels").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException ex) {
+            // The Vector API module is missing or not supported on this machine
+            return new Kernels();
+        }
+    }
+
+    /**
+     * Returns the name of the kernels, for reporting.
+     */
+    public String name() {
+        return "scalar";
+    }
+
+    /**
+     * Adds n weights starting at wOff to the accumulator starting at accOff.
+     */
+    public void add(short[] acc, int accOff, short[] weights, int wOff, int n) {
+        for (int i = 0; i < n; i++)
+            acc[accOff + i] += weights[wOff + i];
+    }
+
+    /**
+     * Subtracts n weights starting at wOff from the accumulator starting at accOff.
+     */
+    public void sub(short[] acc, int accOff, short[] weights, int wOff, int n) {
+        for (int i = 0; i < n; i++)
+            acc[accOff + i] -= weights[wOff + i];
+    }
+
+    /**
+     * Returns the dot product of n accumulator entries starting at accOff, each clamped to
+     * [0, max], and n weights starting at wOff. max must be less than 256, so that every
+     * product fits in 16 bits.
+     */
+    public int dot(short[] acc, int accOff, byte[] weights, int wOff, int n, int max) {
+        int sum = 0;
+        for (int i = 0; i < n; i++)
+            sum += Math.min(Math.max(acc[accOff + i], 0), max) * weights[wOff + i];
+        return sum;
+    }
+}
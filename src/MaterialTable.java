@@ -0,0 +1,168 @@
+/**
+ * 
+ * @author Dalton He
+ * created 12-11-18
+ * 
+ */
+public class MaterialTable implements Types {
+    // The terms of the evaluation which depend only on the number of pieces of each type are
+    // computed once per material signature and kept in a table indexed by the material key of
+    // the position (see Position.materialKey). Each search thread has its own table.
+    private Entry[] table;
+    private int mask;
+
+    /**
+     * Creates a material hash table with the given number of entries (a power of 2).
+     */
+    public MaterialTable(int size) {
+        table = new Entry[size];
+        for (int i = 0; i < size; i++) table[i] = new Entry();
+        mask = size - 1;
+    }
+
+    /**
+     * Returns the entry for the material of the given position. If the table does not hold
+     * the material signature, the entry is recomputed first.
+     */
+    public Entry probe(Position pos) {
+        Entry entry = table[(int) pos.materialKey & mask];
+        if (entry.key != pos.materialKey || !entry.valid) entry.compute(pos);
+        return entry;
+    }
+
+    /**
+     * Material data of one position. The imbalance is from white's perspective.
+     */
+    public static class Entry {
+        public long key;          // material key of the position
+        public boolean valid;     // false until the entry is first computed
+        public int imbalance;     // imbalance score
+        public double imbalance_w, imbalance_b; // imbalance score of each side, before rounding
+        public double weight_mg;  // middlegame weight of the tapered eval (range 0 to 1)
+
+        // Scale factors of the endgame score in units of SCALE_NORMAL, for the side which is
+        // ahead in the endgame. The bishops of the position decide whether the factor for
+        // opposite colored bishops is used. SCALE_OCB means the factor depends on the pawns.
+        public int scale_w, scale_b;
+        public int ocbScale_w, ocbScale_b;
+
+        private int npm_w, npm_b;
+        private int pawns_w,   pawns_b;
+        private int knights_w, knights_b;
+        private int bishops_w, bishops_b;
+        private int rooks_w,   rooks_b;
+        private int queens_w,  queens_b;
+
+        /**
+         * Computes the entry for the material of the given position.
+         */
+        private void compute(Position pos) {
+            long[] bb = pos.pieceBB;
+            key       = pos.materialKey;
+            valid     = true;
+            pawns_w   = Long.bitCount(bb[W_PAWN   + 6]); pawns_b   = Long.bitCount(bb[B_PAWN   + 6]);
+            knights_w = Long.bitCount(bb[W_KNIGHT + 6]); knights_b = Long.bitCount(bb[B_KNIGHT + 6]);
+            bishops_w = Long.bitCount(bb[W_BISHOP + 6]); bishops_b = Long.bitCount(bb[B_BISHOP + 6]);
+            rooks_w   = Long.bitCount(bb[W_ROOK   + 6]); rooks_b   = Long.bitCount(bb[B_ROOK   + 6]);
+            queens_w  = Long.bitCount(bb[W_QUEEN  + 6]); queens_b  = Long.bitCount(bb[B_QUEEN  + 6]);
+            npm_w = knights_w * VALUE_KNIGHT[MG] + bishops_w * VALUE_BISHOP[MG]
+                  + rooks_w   * VALUE_ROOK[MG]   + queens_w  * VALUE_QUEEN[MG];
+            npm_b = knights_b * VALUE_KNIGHT[MG] + bishops_b * VALUE_BISHOP[MG]
+                  + rooks_b   * VALUE_ROOK[MG]   + queens_b  * VALUE_QUEEN[MG];
+
+            // The total adds the terms in the same order as the sides, so that it is rounded
+            // the same way
+            imbalance_w =  addImbalance(0, WHITE);
+            imbalance_b = -addImbalance(0, BLACK);
+            imbalance   = (int) addImbalance(imbalance_w, BLACK);
+
+            // Calculate the middlegame and endgame weights (range 0 to 1)
+            int npm = Math.max(ENDGAME_THRESH, Math.min(npm_w + npm_b, MIDGAME_THRESH));
+            weight_mg = (npm - ENDGAME_THRESH) / (double) (MIDGAME_THRESH - ENDGAME_THRESH);
+
+            scale_w    = scaleFactor(WHITE, false);
+            scale_b    = scaleFactor(BLACK, false);
+            ocbScale_w = scaleFactor(WHITE, true);
+            ocbScale_b = scaleFactor(BLACK, true);
+        }
+
+        /**
+         * Adds the imbalance terms of the given side to the given score, from white's
+         * perspective, and returns the result.
+         */
+        private double addImbalance(double imbalance, int side) {
+            int pawns     = (side == WHITE ? pawns_w   : pawns_b);
+            int knights   = (side == WHITE ? knights_w : knights_b);
+            int bishops   = (side == WHITE ? bishops_w : bishops_b);
+            int rooks     = (side == WHITE ? rooks_w   : rooks_b);
+            int queens    = (side == WHITE ? queens_w  : queens_b);
+            int pawns_o   = (side == WHITE ? pawns_b   : pawns_w);
+            int knights_o = (side == WHITE ? knights_b : knights_w);
+            int bishops_o = (side == WHITE ? bishops_b : bishops_w);
+            int rooks_o   = (side == WHITE ? rooks_b   : rooks_w);
+            int queens_o  = (side == WHITE ? queens_b  : queens_w);
+
+            if (pawns   > 0) imbalance += side * pawns   * (  pawns     * P_WITH_P );
+            if (knights > 0) imbalance += side * knights * (  pawns     * N_WITH_P
+                                                            + knights   * N_WITH_N
+                                                            + pawns_o   * N_VS_P   );
+            if (bishops > 0) imbalance += side * bishops * (  pawns     * B_WITH_P
+                                                            + knights   * B_WITH_N
+                                                            + pawns_o   * B_VS_P
+                                                            + knights_o * B_VS_N   );
+            if (rooks   > 0) imbalance += side * rooks   * (  pawns     * R_WITH_P
+                                                            + knights   * R_WITH_N
+                                                            + bishops   * R_WITH_B
+                                                            + rooks     * R_WITH_R
+                                                            + pawns_o   * R_VS_P
+                                                            + knights_o * R_VS_N
+                                                            + bishops_o * R_VS_B   );
+            if (queens  > 0) imbalance += side * queens  * (  pawns     * Q_WITH_P
+                                                            + knights   * Q_WITH_N
+                                                            + bishops   * Q_WITH_B
+                                                            + rooks     * Q_WITH_R
+                                                            + queens    * Q_WITH_Q
+                                                            + pawns_o   * Q_VS_P
+                                                            + knights_o * Q_VS_N
+                                                            + bishops_o * Q_VS_B
+                                                            + rooks_o   * Q_VS_R   );
+            if (bishops > 1) imbalance += side           * (  BISHOP_PAIR
+                                                            + pawns     * P_WITH_BB
+                                                            + knights   * N_WITH_BB
+                                                            + rooks     * R_WITH_BB
+                                                            + queens    * Q_WITH_BB
+                                                            - pawns_o   * P_VS_BB
+                                                            - knights_o * N_VS_BB
+                                                            - bishops_o * B_VS_BB
+                                                            - rooks_o   * R_VS_BB
+                                                            - queens_o  * Q_VS_BB  );
+            return imbalance;
+        }
+
+        /**
+         * Returns the endgame scale factor if the given side is ahead. Scores of likely draws
+         * are scaled down.
+         */
+        private int scaleFactor(int strongSide, boolean oppBishops) {
+            if (npm_w + npm_b >= MIDGAME_THRESH) return SCALE_NORMAL;
+            int pawns_s = (strongSide == WHITE ? pawns_w : pawns_b);
+
+            // Winning side has no pawns and insufficient material advantage
+            if (pawns_s == 0 && Math.abs(npm_w - npm_b) <= VALUE_BISHOP[MG]) {
+                int npm_s = (strongSide == WHITE ? npm_w : npm_b);
+                int npm_o = (strongSide == WHITE ? npm_b : npm_w);
+                return (npm_s < VALUE_ROOK[MG] ? 0 :
+                    (npm_o <= VALUE_BISHOP[MG] ? SCALE_NORMAL / 16 : SCALE_NORMAL / 5));
+            }
+            // Bishops of opposite colors: Scaling depends on the pawn asymmetry (number of
+            // unopposed pawns + number of passed pawns).
+            else if (npm_w == VALUE_BISHOP[MG] && npm_b == VALUE_BISHOP[MG] && oppBishops)
+                return SCALE_OCB;
+            else if ((bishops_w == 1 && bishops_b == 1 && oppBishops) && pawns_s <= 6)
+                return (pawns_s + 20) * SCALE_NORMAL / 32;
+            else if (pawns_s <= 2)
+                return (pawns_s + 5) * SCALE_NORMAL / 8;
+            return SCALE_NORMAL;
+        }
+    }
+}
@@ -6,14 +6,12 @@ import java.util.List;
  * created 10-08-18
  * 
  */
-public class Move implements Types, Comparable<Move> {
+public class Move implements Types {
     public int start;    // moving piece starting index
     public int target;   // moving piece target index
     public int piece;    // moving piece type
     public int captured; // captured piece type
     public int type;     // move type
-    public int score;    // move weight, for move ordering
-    public int hscore;   // history weight, for move ordering
 
     /**
      * Creates a move with the given parameters.
@@ -25,6 +23,13 @@ public class Move implements Types, Comparable<Move> {
         this.captured = captured;
         this.type     = type;
     }
+
+    /**
+     * Creates a move from its packed integer form (see pack()).
+     */
+    public Move(int move) {
+        this(start(move), target(move), piece(move), captured(move), type(move));
+    }
     
     /**
      * Returns {@code true} if the given move is the same as this move.
@@ -33,16 +38,6 @@ public class Move implements Types, Comparable<Move> {
         return (piece == other.piece && start == other.start && target == other.target);
     }
     
-    /**
-     * Returns a positive integer if the given move has higher sort priority, and a negative
-     * integer if it has lower sort priority.
-     */
-    public int compareTo(Move other) {
-        if (score  != other.score)  return other.score  - score;
-        if (hscore != other.hscore) return other.hscore - hscore;
-        return Math.abs(piece) - Math.abs(other.piece);
-    }
-
     /**
      * Returns the move in a compact integer form. The rightmost 8 bits store the target index,
      * the next 8 bits store the start index. Note: promotions to all piece types on the same 
@@ -51,6 +46,17 @@ public class Move implements Types, Comparable<Move> {
     public int toInt() {
         return ((start << 8) | target);
     }
+
+    /**
+     * Returns the move in packed integer form. The rightmost 16 bits are the same as toInt(),
+     * the next 4 bits store the moving piece type, the next 4 bits store the captured piece
+     * type, and the next 3 bits store the move type. Unlike toInt(), the packed form holds
+     * everything needed to make the move, so that move generation and search can work with
+     * plain integers. A packed move is never 0.
+     */
+    public int pack() {
+        return pack(start, target, piece, captured, type);
+    }
     
     /**
      * Returns the short form algebraic notation of the move (e.g. e4, 0-0, Bxf7).
@@ -100,4 +106,55 @@ public class Move implements Types, Comparable<Move> {
         if (type == PROMOTION) result += "nbrq".charAt(Math.abs(piece) - 2);    
         return result;
     }
+
+    /* PACKED MOVE HELPERS */
+
+    /**
+     * Returns the packed integer form of the move with the given parameters.
+     */
+    public static int pack(int start, int target, int piece, int captured, int type) {
+        return (type << 24) | ((captured + 6) << 20) | ((piece + 6) << 16) | (start << 8) | target;
+    }
+
+    /**
+     * Returns the start index of the given packed move.
+     */
+    public static int start(int move) {
+        return (move >> 8) & 0xFF;
+    }
+
+    /**
+     * Returns the target index of the given packed move.
+     */
+    public static int target(int move) {
+        return move & 0xFF;
+    }
+
+    /**
+     * Returns the moving piece type of the given packed move.
+     */
+    public static int piece(int move) {
+        return ((move >> 16) & 0xF) - 6;
+    }
+
+    /**
+     * Returns the captured piece type of the given packed move.
+     */
+    public static int captured(int move) {
+        return ((move >> 20) & 0xF) - 6;
+    }
+
+    /**
+     * Returns the move type of the given packed move.
+     */
+    public static int type(int move) {
+        return move >> 24;
+    }
+
+    /**
+     * Returns the compact integer form (see toInt()) of the given packed move.
+     */
+    public static int toInt(int move) {
+        return move & 0xFFFF;
+    }
 }
@@ -0,0 +1,193 @@
+/**
+ * 
+ * @author Dalton He
+ * created 12-06-18
+ * 
+ */
+public class MovePicker implements Types {
+    private Position pos;         // position to pick moves from
+    private int hashMove;         // hash move in integer form (see Move.toInt()), 0 if none
+    private int[][] history;      // history heuristic move scores, for ordering quiet moves
+    private int stage;            // current stage of move generation
+    private boolean quiescence;   // true if only captures and promotions are picked
+    private int[] moves;          // packed moves generated in the current stage
+    private int[] scores;         // sort keys of the moves, higher is searched first
+    private int index;            // index of the next move in the array
+    private int end;              // number of moves in the array
+
+    /**
+     * Creates a move picker with its own move buffer. Each search thread keeps one picker per
+     * ply, so that the search does not need to allocate any move lists.
+     */
+    public MovePicker() {
+        moves  = new int[MAX_MOVES];
+        scores = new int[MAX_MOVES];
+    }
+
+    /**
+     * Prepares the picker for a node of the main search. The hash move is tried first, then
+     * captures and promotions in MVV/LVA order, then quiet moves in history order. Each stage
+     * is only generated once the moves of the previous stages have been searched.
+     */
+    public void init(Position pos, int hashMove, int[][] history) {
+        this.pos        = pos;
+        this.hashMove   = hashMove;
+        this.history    = history;
+        this.stage      = STAGE_HASH_MOVE;
+        this.quiescence = false;
+    }
+
+    /**
+     * Prepares the picker for a node of the quiescence search, which picks only captures and
+     * promotions.
+     */
+    public void initQuiescence(Position pos) {
+        this.pos        = pos;
+        this.hashMove   = 0;
+        this.stage      = STAGE_GEN_CAPTURES;
+        this.quiescence = true;
+    }
+
+    /**
+     * Returns the next pseudolegal move to search in packed form, or 0 if there are no moves
+     * left.
+     */
+    public int next() {
+        while (true) {
+            switch (stage) {
+            case STAGE_HASH_MOVE:
+                stage = STAGE_GEN_CAPTURES;
+                if (hashMove != 0) {
+                    int move = findHashMove();
+                    if (move != 0) return move;
+                }
+                break;
+
+            case STAGE_GEN_CAPTURES:
+                end = pos.genPseudoMoves(GEN_QSEARCH, moves, 0);
+                for (int i = 0; i < end; i++) {
+                    int move = moves[i];
+                    int score;
+                    if (Move.type(move) == PROMOTION)
+                        // range: 100 to 105
+                        score = PRIORITY_PROMOTION + Math.abs(Move.captured(move));
+                    else {
+                        // range: 54 (KxP) to 99 (PxQ)
+                        int victim = Math.abs(Move.captured(move));
+                        if (victim == 3) victim = 2;
+                        int attacker = Math.abs(Move.piece(move));
+                        score = PRIORITY_CAPTURE + 10 * victim - attacker; // MVV/LVA
+                    }
+                    scores[i] = sortKey(score, move);
+                }
+                index = 0;
+                stage = STAGE_CAPTURES;
+                break;
+
+            case STAGE_CAPTURES:
+                if (index < end) {
+                    int move = pickBest();
+                    if (Move.toInt(move) != hashMove) return move;
+                    break;
+                }
+                stage = (quiescence ? STAGE_DONE : STAGE_GEN_QUIETS);
+                break;
+
+            case STAGE_GEN_QUIETS:
+                // Quiet moves are ordered by the history heuristic
+                end = pos.genPseudoMoves(GEN_QUIETS, moves, 0);
+                for (int i = 0; i < end; i++)
+                    scores[i] = sortKey(history[Move.piece(moves[i]) + 6][Move.target(moves[i])],
+                                        moves[i]);
+                index = 0;
+                insertionSort();
+                stage = STAGE_QUIETS;
+                break;
+
+            case STAGE_QUIETS:
+                if (index < end) {
+                    int move = moves[index++];
+                    if (Move.toInt(move) != hashMove) return move;
+                    break;
+                }
+                stage = STAGE_DONE;
+                break;
+
+            default:
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Returns an upper bound on the number of moves left to pick, or MAX_MOVES if the last
+     * stage of the main search has not been generated yet.
+     */
+    public int remaining() {
+        if (stage == STAGE_QUIETS) return end - index;
+        if (stage == STAGE_DONE)   return 0;
+        return MAX_MOVES;
+    }
+
+    /**
+     * Returns the hash move in packed form if it is pseudolegal in this position, and 0
+     * otherwise. The hash move may come from another position in case of a key collision.
+     */
+    private int findHashMove() {
+        int start = hashMove >> 8;
+        if (!Position.isLegalIndex(start) || pos.board[start] * pos.toMove <= 0) return 0;
+
+        // Generate the moves of the moving piece only
+        int count = pos.genPieceMoves(start, GEN_SEARCH, moves, 0);
+        for (int i = 0; i < count; i++)
+            if (Move.toInt(moves[i]) == hashMove) return moves[i];
+        return 0;
+    }
+
+    /**
+     * Returns the sort key for a move with the given priority. Moves of equal priority are
+     * sorted by the type of the moving piece, lower piece types first.
+     */
+    private static int sortKey(int priority, int move) {
+        return 8 * priority + KING - Math.abs(Move.piece(move));
+    }
+
+    /**
+     * Selection sort step: returns the best of the remaining moves and moves it to the front
+     * of the remaining moves. Moves with equal keys keep their order.
+     */
+    private int pickBest() {
+        int best = index;
+        for (int i = index + 1; i < end; i++)
+            if (scores[i] > scores[best]) best = i;
+
+        int move  = moves[best];
+        int score = scores[best];
+        for (int i = best; i > index; i--) {
+            moves[i]  = moves[i - 1];
+            scores[i] = scores[i - 1];
+        }
+        moves[index]  = move;
+        scores[index] = score;
+        return moves[index++];
+    }
+
+    /**
+     * Sorts the remaining moves by their keys, highest first. Moves with equal keys keep their
+     * order.
+     */
+    private void insertionSort() {
+        for (int i = index + 1; i < end; i++) {
+            int move  = moves[i];
+            int score = scores[i];
+            int j = i - 1;
+            while (j >= index && scores[j] < score) {
+                moves[j + 1]  = moves[j];
+                scores[j + 1] = scores[j];
+                j--;
+            }
+            moves[j + 1]  = move;
+            scores[j + 1] = score;
+        }
+    }
+}
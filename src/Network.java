@@ -0,0 +1,136 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * 
+ * @author Dalton He
+ * created 12-13-18
+ * 
+ */
+public class Network implements Types {
+    // Efficiently updatable neural network, an alternative to the handcrafted evaluation.
+    // The input features are the pieces on their squares, seen from each side's perspective:
+    //     feature = (own/enemy * 6 + piece type - 1) * 64 + square
+    // where the square is mirrored vertically for white, so that a1 is square 0 for white and
+    // a8 is square 0 for black. A position has at most 32 active features.
+    //
+    // The first layer maps the features of each perspective to HIDDEN int16 neurons. Its
+    // output (the accumulator) is the bias plus the weights of the active features, so a move
+    // only adds and subtracts the weights of the pieces it moves. Every position keeps its
+    // accumulator up to date in setSquare(). The two halves of the accumulator are clamped to
+    // [0, QA], put in side to move / other side order and multiplied by the int8 output
+    // weights. The array arithmetic is done by the kernels (see Kernels).
+    //
+    // The network file is little-endian:
+    //     long   magic number "SAVANTN1"
+    //     int    HIDDEN, the number of neurons of each perspective
+    //     short  feature weights [768][HIDDEN]
+    //     short  feature biases  [HIDDEN]
+    //     byte   output weights  [2 * HIDDEN]
+    //     int    output bias
+    // The weights are quantized by QA in the first layer and by QB in the output layer.
+    private static final long MAGIC    = 0x534156414E544E31L; // "SAVANTN1"
+    private static final int  FEATURES = 768;
+    private static final int  QA       = 255;
+    private static final int  QB       = 64;
+    private static final int  SCALE    = 400; // centipawns for an output of 1.0
+
+    public final int HIDDEN;               // number of neurons of each perspective
+    private final short[] featureWeights;  // featureWeights[feature * HIDDEN + neuron]
+    private final short[] featureBiases;
+    private final byte[]  outputWeights;   // side to move neurons first
+    private final int     outputBias;
+    private final Kernels kernels = Kernels.INSTANCE;
+
+    /**
+     * Loads the network from the given file.
+     */
+    public Network(String path) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(Paths.get(path)));
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < 12 || buffer.getLong() != MAGIC)
+            throw new IOException("not a network file: " + path);
+        HIDDEN = buffer.getInt();
+        if (   HIDDEN <= 0 || HIDDEN > 4096
+            || buffer.remaining() != 2 * FEATURES * HIDDEN + 2 * HIDDEN + 2 * HIDDEN + 4)
+            throw new IOException("wrong network size: " + path);
+
+        featureWeights = new short[FEATURES * HIDDEN];
+        featureBiases  = new short[HIDDEN];
+        outputWeights  = new byte[2 * HIDDEN];
+        buffer.asShortBuffer().get(featureWeights);
+        buffer.position(buffer.position() + 2 * featureWeights.length);
+        buffer.asShortBuffer().get(featureBiases);
+        buffer.position(buffer.position() + 2 * featureBiases.length);
+        buffer.get(outputWeights);
+        outputBias = buffer.getInt();
+    }
+
+    /**
+     * Returns a new accumulator for the given position, computed from scratch. The first
+     * HIDDEN entries are white's perspective, the others black's.
+     */
+    public short[] accumulator(Position pos) {
+        short[] acc = new short[2 * HIDDEN];
+        System.arraycopy(featureBiases, 0, acc, 0, HIDDEN);
+        System.arraycopy(featureBiases, 0, acc, HIDDEN, HIDDEN);
+        for (long bb = pos.sideBB[1]; bb != 0; bb &= bb - 1) {
+            int sq = Long.numberOfTrailingZeros(bb);
+            addPiece(acc, pos.board[Bitboard.index(sq)], sq);
+        }
+        return acc;
+    }
+
+    /**
+     * Adds the weights of the given piece on the given square to the accumulator.
+     */
+    public void addPiece(short[] acc, int piece, int sq) {
+        int white = feature(WHITE, piece, sq) * HIDDEN;
+        int black = feature(BLACK, piece, sq) * HIDDEN;
+        kernels.add(acc, 0, featureWeights, white, HIDDEN);
+        kernels.add(acc, HIDDEN, featureWeights, black, HIDDEN);
+    }
+
+    /**
+     * Subtracts the weights of the given piece on the given square from the accumulator.
+     */
+    public void removePiece(short[] acc, int piece, int sq) {
+        int white = feature(WHITE, piece, sq) * HIDDEN;
+        int black = feature(BLACK, piece, sq) * HIDDEN;
+        kernels.sub(acc, 0, featureWeights, white, HIDDEN);
+        kernels.sub(acc, HIDDEN, featureWeights, black, HIDDEN);
+    }
+
+    /**
+     * Returns the score of the given position in centipawns, from white's perspective. The
+     * accumulator of the position must belong to this network.
+     */
+    public int evaluate(Position pos) {
+        short[] acc = pos.accumulator;
+        int us   = (pos.toMove == WHITE ? 0 : HIDDEN);
+        int them = HIDDEN - us;
+        int sum  = kernels.dot(acc, us, outputWeights, 0, HIDDEN, QA)
+                 + kernels.dot(acc, them, outputWeights, HIDDEN, HIDDEN, QA);
+        int score = (int) ((long) (sum + outputBias) * SCALE / (QA * QB));
+        return score * pos.toMove;
+    }
+
+    /**
+     * Returns a description of the network, for reporting.
+     */
+    public String toString() {
+        return "768x2-" + HIDDEN + "x2-1, " + kernels.name() + " kernels";
+    }
+
+    /**
+     * Returns the input feature of the given piece on the given square, seen from the given
+     * side's perspective.
+     */
+    private static int feature(int side, int piece, int sq) {
+        int own = (piece * side > 0 ? 0 : 6);
+        return (own + Math.abs(piece) - 1) * 64 + (side == WHITE ? sq ^ 56 : sq);
+    }
+}
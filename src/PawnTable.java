@@ -0,0 +1,307 @@
+/**
+ * 
+ * @author Dalton He
+ * created 12-11-18
+ * 
+ */
+public class PawnTable implements Types {
+    // The pawn structure changes in few of the moves searched, so the evaluation terms which
+    // depend only on the pawns are computed once per pawn structure and kept in a table indexed
+    // by the pawn key of the position (see Position.pawnKey). Each search thread has its own
+    // table, so entries are updated in place without synchronization.
+    private Entry[] table;
+    private int mask;
+
+    /**
+     * Creates a pawn hash table with the given number of entries (a power of 2).
+     */
+    public PawnTable(int size) {
+        table = new Entry[size];
+        for (int i = 0; i < size; i++) table[i] = new Entry();
+        mask = size - 1;
+    }
+
+    /**
+     * Returns the entry for the pawn structure of the given position. If the table does not
+     * hold the structure, the entry is recomputed first.
+     */
+    public Entry probe(Position pos) {
+        Entry entry = table[(int) pos.pawnKey & mask];
+        if (entry.key != pos.pawnKey || !entry.valid) entry.compute(pos);
+        return entry;
+    }
+
+    /**
+     * Pawn structure data of one position. The scores of each side are from that side's
+     * perspective.
+     */
+    public static class Entry {
+        public long key;            // pawn key of the structure
+        public boolean valid;       // false until the entry is first computed
+        public int[] score_w = new int[2]; // doubled, isolated, backward and connected pawns
+        public int[] score_b = new int[2]; // [MG | EG]
+        public int weak_w, weak_b;  // number of weak, unopposed pawns
+        public long passed_w;       // squares of passed pawns
+        public long passed_b;
+        public long attacks_w;      // squares attacked by pawns
+        public long attacks_b;
+        public int[] pawn_count_w = new int[8]; // number of pawns in each file
+        public int[] pawn_count_b = new int[8];
+        public int[] pawn_rank_w  = new int[8]; // rank of the least advanced pawn in each file
+        public int[] pawn_rank_b  = new int[8];
+        public int[] pawn_color_w = new int[2]; // pawn_color[light squares | dark squares]
+        public int[] pawn_color_b = new int[2];
+
+        // King dependent terms, cached for the last king index of each side they were asked for
+        private int shelterKing_w = SQ_NONE, shelterKing_b = SQ_NONE;
+        private int shelter_w, shelter_b;
+        private int kpDistKing_w = SQ_NONE, kpDistKing_b = SQ_NONE;
+        private int kp_dist_w, kp_dist_b;
+
+        /**
+         * Computes the entry for the pawn structure of the given position.
+         */
+        private void compute(Position pos) {
+            int[] board = pos.board;
+            long pawns_w = pos.pieceBB[W_PAWN + 6];
+            long pawns_b = pos.pieceBB[B_PAWN + 6];
+
+            key      = pos.pawnKey;
+            valid    = true;
+            score_w[MG] = 0; score_w[EG] = 0;
+            score_b[MG] = 0; score_b[EG] = 0;
+            weak_w   = 0; weak_b   = 0;
+            passed_w = 0; passed_b = 0;
+            attacks_w = 0; attacks_b = 0;
+            for (int f = FILE_A; f <= FILE_H; f++) {
+                pawn_count_w[f] = 0; pawn_count_b[f] = 0;
+                pawn_rank_w[f]  = 0; pawn_rank_b[f]  = 7;
+            }
+            pawn_color_w[0] = 0; pawn_color_w[1] = 0;
+            pawn_color_b[0] = 0; pawn_color_b[1] = 0;
+            shelterKing_w = SQ_NONE; shelterKing_b = SQ_NONE;
+            kpDistKing_w  = SQ_NONE; kpDistKing_b  = SQ_NONE;
+
+            // First pass: per-file data
+            for (long bb = pawns_w; bb != 0; bb &= bb - 1) {
+                int sq    = Long.numberOfTrailingZeros(bb);
+                int index = Bitboard.index(sq);
+                int rank  = (index >> 4);
+                int file  = (index & 7);
+                pawn_count_w[file]++;
+                if (rank > pawn_rank_w[file]) pawn_rank_w[file] = rank;
+                pawn_color_w[COLOR_LOOKUP[index]]++;
+                attacks_w |= Bitboard.W_PAWN_ATTACKS[sq];
+            }
+            for (long bb = pawns_b; bb != 0; bb &= bb - 1) {
+                int sq    = Long.numberOfTrailingZeros(bb);
+                int index = Bitboard.index(sq);
+                int rank  = (index >> 4);
+                int file  = (index & 7);
+                pawn_count_b[file]++;
+                if (rank < pawn_rank_b[file]) pawn_rank_b[file] = rank;
+                pawn_color_b[COLOR_LOOKUP[index]]++;
+                attacks_b |= Bitboard.B_PAWN_ATTACKS[sq];
+            }
+
+            // Second pass: pawn structure
+            for (long bb = pawns_w; bb != 0; bb &= bb - 1) {
+                int sq    = Long.numberOfTrailingZeros(bb);
+                int index = Bitboard.index(sq);
+                int rank  = (index >> 4);
+                int file  = (index & 7);
+
+                boolean opposed, passed, phalanx, doubled, isolated, backward;
+                // First flag the pawn
+                opposed  = (pawn_count_b[file] != 0 && rank > pawn_rank_b[file]);
+                passed   = (!opposed && (file == FILE_A || rank <= pawn_rank_b[file - 1])
+                                     && (file == FILE_H || rank <= pawn_rank_b[file + 1]));
+                phalanx  = (board[index - 1] == W_PAWN || board[index + 1] == W_PAWN);
+                doubled  = (board[index + 16] == W_PAWN);
+                isolated = (   (file == FILE_A || pawn_count_w[file - 1] == 0)
+                            && (file == FILE_H || pawn_count_w[file + 1] == 0));
+                backward = (!isolated && (file == FILE_A || rank > pawn_rank_w[file - 1])
+                                      && (file == FILE_H || rank > pawn_rank_w[file + 1])
+                                      && (   (board[index - 16] == B_PAWN)
+                                          || (file == FILE_A || board[index - 33] == B_PAWN)
+                                          || (file == FILE_H || board[index - 31] == B_PAWN)));
+                int supporters = ((file != FILE_A && board[index + 15] == W_PAWN) ? 1 : 0) +
+                                 ((file != FILE_H && board[index + 17] == W_PAWN) ? 1 : 0);
+
+                // candidate passer
+                if (   !passed && !opposed && supporters > 0
+                    && (file == FILE_A || rank <= pawn_rank_b[file - 1] + 1)
+                    && (file == FILE_H || rank <= pawn_rank_b[file + 1] + 1))
+                    passed = true;
+
+                // The bonus for passed pawns depends on the kings, so only the pawn is recorded.
+                // Any pawn which is unopposed and cannot be contested by an enemy pawn is
+                // considered passed.
+                if (passed) passed_w |= 1L << sq;
+
+                // Penalty for doubled pawns. Any pawn which has a friendly pawn directly
+                // behind it and is not supported diagonally is considered doubled.
+                if (doubled && supporters == 0) {
+                    score_w[MG] += DOUBLED_PAWN[MG];
+                    score_w[EG] += DOUBLED_PAWN[EG];
+                }
+                // Penalty for isolated pawns. Any pawn which has no friendly pawn on an
+                // adjacent file is considered isolated.
+                if (isolated) {
+                    score_w[MG] += ISOLATED_PAWN[MG];
+                    score_w[EG] += ISOLATED_PAWN[EG];
+                }
+                // Penalty for backward pawns. Any pawn behind all friendly pawns on adjacent
+                // files and which cannot be safely advanced is considered backward.
+                if (backward) {
+                    score_w[MG] += BACKWARD_PAWN[MG];
+                    score_w[EG] += BACKWARD_PAWN[EG];
+                }
+                // Weak, unopposed pawns are only penalized if the opponent has a rook or queen,
+                // so they are counted here.
+                if (!opposed && (isolated || backward)) weak_w++;
+
+                // Bonus for connected pawns. Any pawn which is supported diagonally or
+                // adjacent to a friendly pawn (phalanx) is considered connected. Bonus is
+                // adjusted based on rank, whether the pawn is in a phalanx, whether the
+                // pawn is opposed, and the number of supporting pawns.
+                if (supporters > 0 || phalanx) {
+                    int connectedBonus = CONNECTED_PAWN[rank];
+                    if (phalanx) connectedBonus += PAWN_PHALANX[rank];
+                    if (opposed) connectedBonus >>= 1;
+                    connectedBonus += supporters * SUPPORTED_PAWN;
+                    // In the endgame only pawns on the 4th through 7th ranks receive the bonus.
+                    score_w[MG] += connectedBonus;
+                    if (rank <= RANK_4) score_w[EG] += connectedBonus;
+                }
+            }
+            for (long bb = pawns_b; bb != 0; bb &= bb - 1) {
+                int sq    = Long.numberOfTrailingZeros(bb);
+                int index = Bitboard.index(sq);
+                int rank  = (index >> 4);
+                int file  = (index & 7);
+
+                boolean opposed, passed, phalanx, doubled, isolated, backward;
+                opposed  = (pawn_count_w[file] != 0 && rank < pawn_rank_w[file]);
+                passed   = (!opposed && (file == FILE_A || rank >= pawn_rank_w[file - 1])
+                                     && (file == FILE_H || rank >= pawn_rank_w[file + 1]));
+                phalanx  = (board[index - 1] == B_PAWN || board[index + 1] == B_PAWN);
+                doubled  = (board[index - 16] == B_PAWN);
+                isolated = (   (file == FILE_A || pawn_count_b[file - 1] == 0)
+                            && (file == FILE_H || pawn_count_b[file + 1] == 0));
+                backward = (!isolated && (file == FILE_A || rank < pawn_rank_b[file - 1])
+                                      && (file == FILE_H || rank < pawn_rank_b[file + 1])
+                                      && (   (board[index + 16] == W_PAWN)
+                                          || (file == FILE_A || board[index + 31] == W_PAWN)
+                                          || (file == FILE_H || board[index + 33] == W_PAWN)));
+                int supporters = ((file != FILE_A && board[index - 17] == B_PAWN) ? 1 : 0) +
+                                 ((file != FILE_H && board[index - 15] == B_PAWN) ? 1 : 0);
+
+                if (   !passed && !opposed && supporters > 0
+                    && (file == FILE_A || rank >= pawn_rank_w[file - 1] - 1)
+                    && (file == FILE_H || rank >= pawn_rank_w[file + 1] - 1))
+                    passed = true;
+
+                if (passed) passed_b |= 1L << sq;
+
+                if (doubled && supporters == 0) {
+                    score_b[MG] += DOUBLED_PAWN[MG];
+                    score_b[EG] += DOUBLED_PAWN[EG];
+                }
+                if (isolated) {
+                    score_b[MG] += ISOLATED_PAWN[MG];
+                    score_b[EG] += ISOLATED_PAWN[EG];
+                }
+                if (backward) {
+                    score_b[MG] += BACKWARD_PAWN[MG];
+                    score_b[EG] += BACKWARD_PAWN[EG];
+                }
+                if (!opposed && (isolated || backward)) weak_b++;
+
+                if (supporters > 0 || phalanx) {
+                    int connected_bonus = CONNECTED_PAWN[7-rank];
+                    if (phalanx) connected_bonus += PAWN_PHALANX[7-rank];
+                    if (opposed) connected_bonus >>= 1;
+                    connected_bonus += supporters * SUPPORTED_PAWN;
+
+                    score_b[MG] += connected_bonus;
+                    if (rank >= RANK_5) score_b[EG] += connected_bonus;
+                }
+            }
+        }
+
+        /**
+         * Returns the pawn shelter score for a king of the given side on the given index.
+         */
+        public int shelter(int index, int side) {
+            if (side == WHITE) {
+                if (index != shelterKing_w) {
+                    shelterKing_w = index;
+                    shelter_w     = shelterScore(index, WHITE);
+                }
+                return shelter_w;
+            }
+            if (index != shelterKing_b) {
+                shelterKing_b = index;
+                shelter_b     = shelterScore(index, BLACK);
+            }
+            return shelter_b;
+        }
+
+        /**
+         * Returns the distance from a king of the given side on the given index to the nearest
+         * friendly pawn, or 8 if the side has no pawns.
+         */
+        public int kingPawnDistance(int index, int side, Position pos) {
+            if (side == WHITE) {
+                if (index != kpDistKing_w) {
+                    kpDistKing_w = index;
+                    kp_dist_w    = minDistance(index, pos.pieceBB[W_PAWN + 6]);
+                }
+                return kp_dist_w;
+            }
+            if (index != kpDistKing_b) {
+                kpDistKing_b = index;
+                kp_dist_b    = minDistance(index, pos.pieceBB[B_PAWN + 6]);
+            }
+            return kp_dist_b;
+        }
+
+        /**
+         * Returns the pawn shelter score for the given index and side.
+         */
+        private int shelterScore(int index, int side) {
+            int rank = (index >> 4);
+            int file = Math.max(1, Math.min(6, index & 7));
+            int score = 0;
+            for (int f = file - 1; f <= file + 1; f++) {
+                if (side == WHITE) {
+                    if (pawn_count_w[f] > 0 && rank > pawn_rank_w[f])
+                        score += PAWN_SHELTER[pawn_rank_w[f]][f];
+                    else
+                        score += PAWN_SHELTER[0][f];
+                }
+                else {
+                    if (pawn_count_b[f] > 0 && rank < pawn_rank_b[f])
+                        score += PAWN_SHELTER[7 - pawn_rank_b[f]][f];
+                    else
+                        score += PAWN_SHELTER[0][f];
+                }
+            }
+            return score;
+        }
+
+        /**
+         * Returns the distance from the given index to the nearest of the given pawns, or 8 if
+         * there are none.
+         */
+        private static int minDistance(int index, long pawns) {
+            int min = 8;
+            for (long bb = pawns; bb != 0; bb &= bb - 1) {
+                int dist = Position.dist(index, Bitboard.index(Long.numberOfTrailingZeros(bb)));
+                if (dist < min) min = dist;
+            }
+            return min;
+        }
+    }
+}
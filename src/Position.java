@@ -1,5 +1,6 @@
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Scanner;
 
 /**
@@ -24,9 +25,28 @@ public class Position implements Types {
     public int enpassant;         // enpassant square index (-2 if none)
     public int fiftyMoves;        // fifty moves half-move clock
     public long key;              // zobrist hash key of the position
-    public List<State> stateHist; // previous state history, used for unmaking moves
+    public long pawnKey;          // zobrist hash key of the pawns only
+    public long materialKey;      // zobrist hash key of the number of pieces of each type
+    // State history, used for unmaking moves and detecting repetitions. Entry i holds the
+    // state of the position before the i-th move (or null move) was made.
+    public int histPly;           // number of states in the history
+    public long[] keyHist;        // zobrist hash keys
+    public long[] pawnKeyHist;    // pawn zobrist hash keys
+    public long[] materialKeyHist; // material zobrist hash keys
+    public int[] castlingHist;    // castling rights
+    public int[] enpassantHist;   // enpassant square indices
+    public int[] fiftyHist;       // fifty moves half-move clocks
+    public int[] capturedHist;    // pieces captured by the moves (0 if none)
     public List<Integer> pieces;  // indices of all the pieces
     public int[] indexBoard;      // piece list index lookup
+    public long[] pieceBB;        // bitboards of the squares of each piece, indexed by piece + 6
+    public long[] sideBB;         // bitboards of each side's pieces, indexed by side + 1
+                                  // (sideBB[1] holds all occupied squares)
+    public int[] material;        // material score [MG | EG], from white's perspective
+    public int[] psqt;            // piece-square table score [MG | EG], from white's perspective
+    public int npm_w, npm_b;      // non-pawn material of each side
+    public Network network;       // network of the accumulator (null if none)
+    public short[] accumulator;   // first layer of the network, see Network
     public int w_king;            // index of the white king
     public int b_king;            // index of the black king
     public boolean nullAllowed;   // false if the last move was a null move
@@ -57,7 +77,7 @@ public class Position implements Types {
                     if (PIECE_STR.indexOf(ch) == -1) continue;
                     if      (ch == 'K') w_king = index;
                     else if (ch == 'k') b_king = index;
-                    board[index] = PIECE_STR.indexOf(ch) - 6;
+                    setSquare(index, PIECE_STR.indexOf(ch) - 6);
                     addPiece(index);
                     index++;
                 }
@@ -76,8 +96,85 @@ public class Position implements Types {
         if (input.hasNextInt()) fiftyMoves = input.nextInt();
 
         input.close();
-        Zobrist.initialize();
-        key = Zobrist.getKey(this);
+        key         = Zobrist.getKey(this);
+        pawnKey     = Zobrist.getPawnKey(this);
+        materialKey = Zobrist.getMaterialKey(this);
+    }
+
+    /**
+     * Creates a copy of the given position. The copy shares no mutable state with the original,
+     * so both can be searched independently (e.g. by different search threads).
+     */
+    public Position(Position other) {
+        board       = other.board.clone();
+        toMove      = other.toMove;
+        castling    = other.castling;
+        enpassant   = other.enpassant;
+        fiftyMoves  = other.fiftyMoves;
+        key         = other.key;
+        pawnKey     = other.pawnKey;
+        materialKey = other.materialKey;
+        histPly       = other.histPly;
+        keyHist       = other.keyHist.clone();
+        pawnKeyHist   = other.pawnKeyHist.clone();
+        materialKeyHist = other.materialKeyHist.clone();
+        castlingHist  = other.castlingHist.clone();
+        enpassantHist = other.enpassantHist.clone();
+        fiftyHist     = other.fiftyHist.clone();
+        capturedHist  = other.capturedHist.clone();
+        pieces      = new ArrayList<Integer>(other.pieces);
+        indexBoard  = other.indexBoard.clone();
+        pieceBB     = other.pieceBB.clone();
+        sideBB      = other.sideBB.clone();
+        material    = other.material.clone();
+        psqt        = other.psqt.clone();
+        npm_w       = other.npm_w;
+        npm_b       = other.npm_b;
+        network     = other.network;
+        accumulator = (other.accumulator == null ? null : other.accumulator.clone());
+        w_king      = other.w_king;
+        b_king      = other.b_king;
+        nullAllowed = other.nullAllowed;
+    }
+
+    /**
+     * Makes this position a copy of the given position, like the copy constructor, but reuses
+     * the arrays of this position. Only the states of the history in use are copied.
+     */
+    public void copyFrom(Position other) {
+        System.arraycopy(other.board, 0, board, 0, board.length);
+        toMove      = other.toMove;
+        castling    = other.castling;
+        enpassant   = other.enpassant;
+        fiftyMoves  = other.fiftyMoves;
+        key         = other.key;
+        pawnKey     = other.pawnKey;
+        materialKey = other.materialKey;
+        histPly     = other.histPly;
+        System.arraycopy(other.keyHist,         0, keyHist,         0, histPly);
+        System.arraycopy(other.pawnKeyHist,     0, pawnKeyHist,     0, histPly);
+        System.arraycopy(other.materialKeyHist, 0, materialKeyHist, 0, histPly);
+        System.arraycopy(other.castlingHist,    0, castlingHist,    0, histPly);
+        System.arraycopy(other.enpassantHist,   0, enpassantHist,   0, histPly);
+        System.arraycopy(other.fiftyHist,       0, fiftyHist,       0, histPly);
+        System.arraycopy(other.capturedHist,    0, capturedHist,    0, histPly);
+        pieces.clear();
+        for (int i = 0; i < other.pieces.size(); i++) pieces.add(other.pieces.get(i));
+        System.arraycopy(other.indexBoard, 0, indexBoard, 0, indexBoard.length);
+        System.arraycopy(other.pieceBB,    0, pieceBB,    0, pieceBB.length);
+        System.arraycopy(other.sideBB,     0, sideBB,     0, sideBB.length);
+        System.arraycopy(other.material,   0, material,   0, material.length);
+        System.arraycopy(other.psqt,       0, psqt,       0, psqt.length);
+        npm_w       = other.npm_w;
+        npm_b       = other.npm_b;
+        network     = other.network;
+        if (other.accumulator == null) accumulator = null;
+        else if (accumulator == null || accumulator.length != other.accumulator.length)
+            accumulator = other.accumulator.clone();
+        else System.arraycopy(other.accumulator, 0, accumulator, 0, accumulator.length);
+        w_king      = other.w_king;
+        b_king      = other.b_king;
+        nullAllowed = other.nullAllowed;
     }
 
     /**
@@ -90,9 +187,26 @@ public class Position implements Types {
         enpassant   = SQ_NONE;
         fiftyMoves  = 0;
         key         = 0;
-        stateHist   = new ArrayList<State>(100);
+        pawnKey     = 0;
+        materialKey = 0;
+        histPly       = 0;
+        keyHist       = new long[STATES_MAX];
+        pawnKeyHist   = new long[STATES_MAX];
+        materialKeyHist = new long[STATES_MAX];
+        castlingHist  = new int[STATES_MAX];
+        enpassantHist = new int[STATES_MAX];
+        fiftyHist     = new int[STATES_MAX];
+        capturedHist  = new int[STATES_MAX];
         pieces      = new ArrayList<Integer>(32);
         indexBoard  = new int[120];
+        pieceBB     = new long[13];
+        sideBB      = new long[3];
+        material    = new int[2];
+        psqt        = new int[2];
+        npm_w       = 0;
+        npm_b       = 0;
+        network     = null;
+        accumulator = null;
         w_king      = SQ_NONE;
         b_king      = SQ_NONE;
         nullAllowed = true;
@@ -115,59 +229,86 @@ public class Position implements Types {
      * Makes the given move on the board.
      */
     public void makeMove(Move move) {
-        saveState();
+        makeMove(move.pack());
+    }
+
+    /**
+     * Makes the given packed move on the board.
+     */
+    public void makeMove(int move) {
+        int start    = Move.start(move);
+        int target   = Move.target(move);
+        int piece    = Move.piece(move);
+        int captured = Move.captured(move);
+        int type     = Move.type(move);
+
+        saveState(captured);
         key ^= Zobrist.castling[castling];
         if (enpassant != SQ_NONE) {
             key ^= Zobrist.enpassant[enpassant & 7];
             enpassant = SQ_NONE;
         }
-        if (move.type != NORMAL || move.captured != 0 || Math.abs(move.piece) == PAWN)
+        if (type != NORMAL || captured != 0 || Math.abs(piece) == PAWN)
             fiftyMoves = 0;
         else fiftyMoves++;
         
-        if      (move.type == CASTLE_SHORT) castleShort();
-        else if (move.type == CASTLE_LONG)  castleLong();
+        if      (type == CASTLE_SHORT) castleShort();
+        else if (type == CASTLE_LONG)  castleLong();
         else {
-            board[move.start]  = 0;
-            board[move.target] = move.piece;
+            setSquare(start, 0);
+            setSquare(target, piece);
             
-            if (move.type == NORMAL) {
-                key ^= Zobrist.moves[move.piece + 6][move.start][move.target];
-                if (move.captured == 0) movePiece(move.start, move.target);
+            if (type == NORMAL) {
+                key ^= Zobrist.moves[piece + 6][start][target];
+                if (Math.abs(piece) == PAWN) pawnKey ^= Zobrist.moves[piece + 6][start][target];
+                if (captured == 0) movePiece(start, target);
                 else {
-                    key ^= Zobrist.pieces[move.captured + 6][move.target];
-                    removePiece(move.start);
+                    key ^= Zobrist.pieces[captured + 6][target];
+                    if (Math.abs(captured) == PAWN) pawnKey ^= Zobrist.pieces[captured + 6][target];
+                    materialKey ^= Zobrist.material[captured + 6][Long.bitCount(pieceBB[captured + 6])];
+                    removePiece(start);
                 }
-                if (move.piece == W_KING) {
-                    w_king = move.target;
+                if (piece == W_KING) {
+                    w_king = target;
                     castling &= ~W_ALL_CASTLING;
                 }
-                else if (move.piece == B_KING) {
-                    b_king = move.target;
+                else if (piece == B_KING) {
+                    b_king = target;
                     castling &= ~B_ALL_CASTLING;
                 }
                 if (castling != 0) updateCastlingRights();
             }
-            else if (move.type == PAWN_TWO) {
-                key ^= Zobrist.moves[move.piece + 6][move.start][move.target];
-                movePiece(move.start, move.target);
-                enpassant = move.target + 16 * toMove;
+            else if (type == PAWN_TWO) {
+                key ^= Zobrist.moves[piece + 6][start][target];
+                pawnKey ^= Zobrist.moves[piece + 6][start][target];
+                movePiece(start, target);
+                enpassant = target + 16 * toMove;
                 key ^= Zobrist.enpassant[enpassant & 7];
             }
-            else if (move.type == ENPASSANT) {
-                int captureIndex = move.target + 16 * toMove;
-                board[captureIndex] = 0;
-                key ^= Zobrist.moves[move.piece + 6][move.start][move.target];
+            else if (type == ENPASSANT) {
+                int captureIndex = target + 16 * toMove;
+                setSquare(captureIndex, 0);
+                key ^= Zobrist.moves[piece + 6][start][target];
                 key ^= Zobrist.pieces[PAWN * -toMove + 6][captureIndex];      
-                movePiece(move.start, move.target);
+                pawnKey ^= Zobrist.moves[piece + 6][start][target];
+                pawnKey ^= Zobrist.pieces[PAWN * -toMove + 6][captureIndex];
+                materialKey ^= Zobrist.material[PAWN * -toMove + 6]
+                                               [Long.bitCount(pieceBB[PAWN * -toMove + 6])];
+                movePiece(start, target);
                 removePiece(captureIndex);
             }
-            else { // move.type == PROMOTION
-                key ^= Zobrist.moves[PAWN * toMove + 6][move.start][move.target];
-                if (move.captured == 0) movePiece(move.start, move.target);
+            else { // type == PROMOTION
+                key ^= Zobrist.pieces[PAWN * toMove + 6][start];
+                key ^= Zobrist.pieces[piece + 6][target];
+                pawnKey ^= Zobrist.pieces[PAWN * toMove + 6][start];
+                materialKey ^= Zobrist.material[PAWN * toMove + 6]
+                                               [Long.bitCount(pieceBB[PAWN * toMove + 6])];
+                materialKey ^= Zobrist.material[piece + 6][Long.bitCount(pieceBB[piece + 6]) - 1];
+                if (captured == 0) movePiece(start, target);
                 else {
-                    key ^= Zobrist.pieces[move.captured + 6][move.target];
-                    removePiece(move.start);
+                    key ^= Zobrist.pieces[captured + 6][target];
+                    materialKey ^= Zobrist.material[captured + 6][Long.bitCount(pieceBB[captured + 6])];
+                    removePiece(start);
                 }
                 if (castling != 0) updateCastlingRights();
             }
@@ -181,38 +322,50 @@ public class Position implements Types {
      * Unmakes the given move on the board.
      */
     public void unmakeMove(Move move) {
-        revertState();
+        unmakeMove(move.pack());
+    }
+
+    /**
+     * Unmakes the given packed move on the board.
+     */
+    public void unmakeMove(int move) {
+        int start    = Move.start(move);
+        int target   = Move.target(move);
+        int piece    = Move.piece(move);
+        int type     = Move.type(move);
+        int captured = revertState();
+
         toMove *= -1;
         
-        if      (move.type == CASTLE_SHORT) uncastleShort();
-        else if (move.type == CASTLE_LONG)  uncastleLong();
+        if      (type == CASTLE_SHORT) uncastleShort();
+        else if (type == CASTLE_LONG)  uncastleLong();
         else {
-            if (move.type == NORMAL) {
-                board[move.start]  = move.piece;
-                board[move.target] = move.captured;
-                if (move.captured == 0) movePiece(move.target, move.start);
-                else addPiece(move.start);
-                if      (move.piece == W_KING) w_king = move.start;
-                else if (move.piece == B_KING) b_king = move.start;
+            if (type == NORMAL) {
+                setSquare(start, piece);
+                setSquare(target, captured);
+                if (captured == 0) movePiece(target, start);
+                else addPiece(start);
+                if      (piece == W_KING) w_king = start;
+                else if (piece == B_KING) b_king = start;
             }
-            else if (move.type == PAWN_TWO) {
-                board[move.start]  = move.piece;
-                board[move.target] = 0;
-                movePiece(move.target, move.start);
+            else if (type == PAWN_TWO) {
+                setSquare(start, piece);
+                setSquare(target, 0);
+                movePiece(target, start);
             }
-            else if (move.type == ENPASSANT) {
-                int captureIndex = move.target + 16 * toMove;
-                board[move.start]   = move.piece;
-                board[move.target]  = 0;
-                board[captureIndex] = PAWN * -toMove;
-                movePiece(move.target, move.start);
+            else if (type == ENPASSANT) {
+                int captureIndex = target + 16 * toMove;
+                setSquare(start, piece);
+                setSquare(target, 0);
+                setSquare(captureIndex, PAWN * -toMove);
+                movePiece(target, start);
                 addPiece(captureIndex);
             }
-            else { // move.type == PROMOTION
-                board[move.start]  = PAWN * toMove;
-                board[move.target] = move.captured;
-                if (move.captured == 0) movePiece(move.target, move.start);
-                else addPiece(move.start);
+            else { // type == PROMOTION
+                setSquare(start, PAWN * toMove);
+                setSquare(target, captured);
+                if (captured == 0) movePiece(target, start);
+                else addPiece(start);
             }
         }
     }
@@ -221,7 +374,7 @@ public class Position implements Types {
      * Makes a null (passing) move.
      */
     public void makeNullMove() {
-        saveState();
+        saveState(0);
         if (enpassant != SQ_NONE) {
             key ^= Zobrist.enpassant[enpassant & 7];
             enpassant = SQ_NONE;
@@ -241,6 +394,88 @@ public class Position implements Types {
         nullAllowed = true;
     }
     
+    /**
+     * Puts the given piece on the square given by index (removing any piece already there),
+     * and updates the bitboards, the material and piece-square table scores and the network
+     * accumulator. A piece of 0 empties the square.
+     */
+    public void setSquare(int index, int piece) {
+        long bit = Bitboard.bit(index);
+        int old = board[index];
+        if (old != 0) {
+            pieceBB[old + 6] ^= bit;
+            sideBB[(old > 0 ? WHITE : BLACK) + 1] ^= bit;
+            sideBB[1] ^= bit;
+            material[MG] -= Evaluate.MATERIAL_MG[old + 6];
+            material[EG] -= Evaluate.MATERIAL_EG[old + 6];
+            psqt    [MG] -= Evaluate.PSQT_MG[old + 6][index];
+            psqt    [EG] -= Evaluate.PSQT_EG[old + 6][index];
+            if (old > 0) npm_w -= Evaluate.NON_PAWN[old + 6];
+            else         npm_b -= Evaluate.NON_PAWN[old + 6];
+            if (network != null) network.removePiece(accumulator, old, Bitboard.square(index));
+        }
+        board[index] = piece;
+        if (piece != 0) {
+            pieceBB[piece + 6] ^= bit;
+            sideBB[(piece > 0 ? WHITE : BLACK) + 1] ^= bit;
+            sideBB[1] ^= bit;
+            material[MG] += Evaluate.MATERIAL_MG[piece + 6];
+            material[EG] += Evaluate.MATERIAL_EG[piece + 6];
+            psqt    [MG] += Evaluate.PSQT_MG[piece + 6][index];
+            psqt    [EG] += Evaluate.PSQT_EG[piece + 6][index];
+            if (piece > 0) npm_w += Evaluate.NON_PAWN[piece + 6];
+            else           npm_b += Evaluate.NON_PAWN[piece + 6];
+            if (network != null) network.addPiece(accumulator, piece, Bitboard.square(index));
+        }
+    }
+
+    /**
+     * Sets the network whose accumulator the position keeps up to date, and computes the
+     * accumulator from scratch. A network of null stops the updates.
+     */
+    public void setNetwork(Network network) {
+        this.network = network;
+        accumulator  = (network == null ? null : network.accumulator(this));
+    }
+
+    /**
+     * Returns true if the incrementally updated material and piece-square table scores equal
+     * the scores computed from scratch. Used as a debugging check.
+     */
+    public boolean isScoreConsistent() {
+        int[] material = new int[2];
+        int[] psqt     = new int[2];
+        int npm_w = 0, npm_b = 0;
+        for (int index : pieces) {
+            int piece = board[index];
+            int type  = Math.abs(piece);
+            int rank  = (piece > 0 ? index >> 4 : 7 - (index >> 4));
+            int file  = (index & 7);
+            int sign  = (piece > 0 ? 1 : -1);
+            int[][] table_mg, table_eg;
+            int[] value;
+            switch (type) {
+            case PAWN:   value = VALUE_PAWN;   table_mg = PAWN_PSQT_MG;   table_eg = PAWN_PSQT_EG;   break;
+            case KNIGHT: value = VALUE_KNIGHT; table_mg = KNIGHT_PSQT_MG; table_eg = KNIGHT_PSQT_EG; break;
+            case BISHOP: value = VALUE_BISHOP; table_mg = BISHOP_PSQT_MG; table_eg = BISHOP_PSQT_EG; break;
+            case ROOK:   value = VALUE_ROOK;   table_mg = ROOK_PSQT_MG;   table_eg = ROOK_PSQT_EG;   break;
+            case QUEEN:  value = VALUE_QUEEN;  table_mg = QUEEN_PSQT_MG;  table_eg = QUEEN_PSQT_EG;  break;
+            default:     value = new int[2];   table_mg = KING_PSQT_MG;   table_eg = KING_PSQT_EG;
+            }
+            material[MG] += sign * value[MG];
+            material[EG] += sign * value[EG];
+            psqt    [MG] += sign * table_mg[rank][file];
+            psqt    [EG] += sign * table_eg[rank][file];
+            if (type != PAWN) {
+                if (piece > 0) npm_w += value[MG];
+                else           npm_b += value[MG];
+            }
+        }
+        return (   material[MG] == this.material[MG] && material[EG] == this.material[EG]
+                && psqt[MG] == this.psqt[MG] && psqt[EG] == this.psqt[EG]
+                && npm_w == this.npm_w && npm_b == this.npm_b);
+    }
+
     /**
      * Changes start index to target index in the piece list.
      */
@@ -272,10 +507,10 @@ public class Position implements Types {
      */
     public void castleShort() {
         if (toMove == WHITE) {
-            board[SQ_e1] = 0;
-            board[SQ_f1] = W_ROOK;
-            board[SQ_g1] = W_KING;
-            board[SQ_h1] = 0;
+            setSquare(SQ_e1, 0);
+            setSquare(SQ_f1, W_ROOK);
+            setSquare(SQ_g1, W_KING);
+            setSquare(SQ_h1, 0);
             movePiece(SQ_e1, SQ_g1);
             movePiece(SQ_h1, SQ_f1);
             key ^= Zobrist.w_short_castle;
@@ -283,10 +518,10 @@ public class Position implements Types {
             castling &= ~W_ALL_CASTLING;
         }
         else {
-            board[SQ_e8] = 0;
-            board[SQ_f8] = B_ROOK;
-            board[SQ_g8] = B_KING;
-            board[SQ_h8] = 0;
+            setSquare(SQ_e8, 0);
+            setSquare(SQ_f8, B_ROOK);
+            setSquare(SQ_g8, B_KING);
+            setSquare(SQ_h8, 0);
             movePiece(SQ_e8, SQ_g8);
             movePiece(SQ_h8, SQ_f8);
             key ^= Zobrist.b_short_castle;
@@ -300,10 +535,10 @@ public class Position implements Types {
      */
     public void castleLong() {
         if (toMove == WHITE) {
-            board[SQ_a1] = 0;
-            board[SQ_c1] = W_KING;
-            board[SQ_d1] = W_ROOK;
-            board[SQ_e1] = 0;
+            setSquare(SQ_a1, 0);
+            setSquare(SQ_c1, W_KING);
+            setSquare(SQ_d1, W_ROOK);
+            setSquare(SQ_e1, 0);
             movePiece(SQ_e1, SQ_c1);
             movePiece(SQ_a1, SQ_d1);
             key ^= Zobrist.w_long_castle;
@@ -311,10 +546,10 @@ public class Position implements Types {
             castling &= ~W_ALL_CASTLING;
         }
         else {
-            board[SQ_a8] = 0;
-            board[SQ_c8] = B_KING;
-            board[SQ_d8] = B_ROOK;
-            board[SQ_e8] = 0;
+            setSquare(SQ_a8, 0);
+            setSquare(SQ_c8, B_KING);
+            setSquare(SQ_d8, B_ROOK);
+            setSquare(SQ_e8, 0);
             movePiece(SQ_e8, SQ_c8);
             movePiece(SQ_a8, SQ_d8);
             key ^= Zobrist.b_long_castle;
@@ -328,19 +563,19 @@ public class Position implements Types {
      */
     public void uncastleShort() {
         if (toMove == WHITE) {
-            board[SQ_e1] = W_KING;
-            board[SQ_f1] = 0;
-            board[SQ_g1] = 0;
-            board[SQ_h1] = W_ROOK;
+            setSquare(SQ_e1, W_KING);
+            setSquare(SQ_f1, 0);
+            setSquare(SQ_g1, 0);
+            setSquare(SQ_h1, W_ROOK);
             movePiece(SQ_g1, SQ_e1);
             movePiece(SQ_f1, SQ_h1);
             w_king = SQ_e1;
         }
         else {
-            board[SQ_e8] = B_KING;
-            board[SQ_f8] = 0;
-            board[SQ_g8] = 0;
-            board[SQ_h8] = B_ROOK;
+            setSquare(SQ_e8, B_KING);
+            setSquare(SQ_f8, 0);
+            setSquare(SQ_g8, 0);
+            setSquare(SQ_h8, B_ROOK);
             movePiece(SQ_g8, SQ_e8);
             movePiece(SQ_f8, SQ_h8);
             b_king = SQ_e8;
@@ -352,19 +587,19 @@ public class Position implements Types {
      */
     public void uncastleLong() {
         if (toMove == WHITE) {
-            board[SQ_a1] = W_ROOK;
-            board[SQ_c1] = 0;
-            board[SQ_d1] = 0;
-            board[SQ_e1] = W_KING;
+            setSquare(SQ_a1, W_ROOK);
+            setSquare(SQ_c1, 0);
+            setSquare(SQ_d1, 0);
+            setSquare(SQ_e1, W_KING);
             movePiece(SQ_c1, SQ_e1);
             movePiece(SQ_d1, SQ_a1);
             w_king = SQ_e1;
         }
         else {
-            board[SQ_a8] = B_ROOK;
-            board[SQ_c8] = 0;
-            board[SQ_d8] = 0;
-            board[SQ_e8] = B_KING;
+            setSquare(SQ_a8, B_ROOK);
+            setSquare(SQ_c8, 0);
+            setSquare(SQ_d8, 0);
+            setSquare(SQ_e8, B_KING);
             movePiece(SQ_c8, SQ_e8);
             movePiece(SQ_d8, SQ_a8);
             b_king = SQ_e8;
@@ -386,180 +621,141 @@ public class Position implements Types {
      */
     public List<Move> genLegalMoves() {
         List<Move> legalMoves = new ArrayList<Move>();
-        List<Move> moveList = genPseudoMoves(GEN_ALL);
-        for (Move move : moveList) {
-            makeMove(move);
-            if (!inCheck(-toMove)) legalMoves.add(move);
-            unmakeMove(move);
+        int[] moves = new int[MAX_MOVES];
+        int count = genPseudoMoves(GEN_ALL, moves, 0);
+        for (int i = 0; i < count; i++) {
+            makeMove(moves[i]);
+            if (!inCheck(-toMove)) legalMoves.add(new Move(moves[i]));
+            unmakeMove(moves[i]);
         }
         return legalMoves;
     }
 
     /**
-     * Returns a list of all pseudolegal moves (moves that follow the basic rules but may leave
-     * the king in check) that can be made from this position.
+     * Adds all pseudolegal moves (moves that follow the basic rules but may leave the king in
+     * check) that can be made from this position to the given array, starting at index count.
+     * The moves are stored in packed form. Returns the new number of moves in the array.
      */
-    public List<Move> genPseudoMoves(int gen) {
-        List<Move> moveList = new ArrayList<Move>();
-
-        for (int index : pieces) {
-            int piece = board[index] * toMove;
-            if (piece < 0) continue;
-
-            if (piece == PAWN) genPawn(index, gen, moveList);
-            else if (piece == KING) {
-                if (gen != GEN_QSEARCH && castling != 0) genCastling(index, moveList);
-                genNonslider(index, KING_DELTA, gen, moveList);
-            }
-            else if (piece == KNIGHT) genNonslider(index, KNIGHT_DELTA, gen, moveList);
-            else genSlider(index, PIECE_DELTA[piece], gen, moveList);
-        }
-        return moveList;
-    }
-    
-    /**
-     * Adds all pseudolegal non-sliding moves to the given move list.
-     */
-    public void genNonslider(int start, int[] delta, int gen, List<Move> moveList) {
-        for (int d : delta) {
-            int target = start + d;
-            if (isLegalIndex(target)) {
-                if (gen == GEN_QSEARCH ? board[target] * toMove < 0
-                                       : board[target] * toMove <= 0)
-                    moveList.add(new Move(start, target, board[start], board[target], NORMAL));
-            }
+    public int genPseudoMoves(int gen, int[] moves, int count) {
+        long own = sideBB[toMove + 1];
+        while (own != 0) {
+            count = genPieceMoves(Bitboard.index(Long.numberOfTrailingZeros(own)), gen, moves,
+                                  count);
+            own &= own - 1;
         }
+        return count;
     }
 
     /**
-     * Adds all pseudolegal sliding moves to the given move list.
+     * Adds all pseudolegal moves of the piece of the side to move on the given index to the 
+     * given array. Returns the new number of moves in the array.
      */
-    public void genSlider(int start, int[] delta, int gen, List<Move> moveList) {
-        for (int d : delta) {
-            int target = start + d;
-            while (isLegalIndex(target)) {
-                int captured = board[target];
-                if (captured * toMove <= 0) {
-                    if (gen != GEN_QSEARCH || captured != 0)
-                        moveList.add(new Move(start, target, board[start], board[target], NORMAL));
-                }
-                if (captured != 0) break;
-                target += d;
-            }
+    public int genPieceMoves(int index, int gen, int[] moves, int count) {
+        int piece = board[index] * toMove;
+
+        if (piece == PAWN) return genPawn(index, gen, moves, count);
+        if (piece == KING && gen != GEN_QSEARCH && castling != 0)
+            count = genCastling(index, moves, count);
+
+        // Captures only, quiet moves only, or both
+        long targets = (gen == GEN_QSEARCH ? sideBB[-toMove + 1] :
+                        gen == GEN_QUIETS  ? ~sideBB[1]
+                                           : ~sideBB[toMove + 1]);
+        targets &= Bitboard.attacks(piece, Bitboard.square(index), sideBB[1]);
+        while (targets != 0) {
+            int target = Bitboard.index(Long.numberOfTrailingZeros(targets));
+            moves[count++] = Move.pack(index, target, board[index], board[target], NORMAL);
+            targets &= targets - 1;
         }
+        return count;
     }
 
     /**
-     * Adds all pseudolegal pawn moves to the given move list.
+     * Adds all pseudolegal pawn moves to the given array. Returns the new number of moves
+     * in the array.
      */
-    public void genPawn(int start, int gen, List<Move> moveList) {
+    public int genPawn(int start, int gen, int[] moves, int count) {
         for (int i = 0; i < 3; i++) {
             int target = start - PAWN_DELTA[i] * toMove;
             if (!isLegalIndex(target)) continue;
 
             if (i == 0 ? board[target] == 0 : board[target] * toMove < 0) {
                 if (target <= SQ_h8 || target >= SQ_a1) { // promotion
-                    moveList.add(new Move(start, target, QUEEN * toMove, board[target], PROMOTION));
+                    if (gen != GEN_QUIETS)
+                        moves[count++] = Move.pack(start, target, QUEEN * toMove, board[target], PROMOTION);
                     if (gen == GEN_ALL) { // underpromotion
-                        moveList.add(new Move(start, target, KNIGHT * toMove, board[target], PROMOTION));
-                        moveList.add(new Move(start, target, ROOK   * toMove, board[target], PROMOTION));
-                        moveList.add(new Move(start, target, BISHOP * toMove, board[target], PROMOTION));
+                        moves[count++] = Move.pack(start, target, KNIGHT * toMove, board[target], PROMOTION);
+                        moves[count++] = Move.pack(start, target, ROOK   * toMove, board[target], PROMOTION);
+                        moves[count++] = Move.pack(start, target, BISHOP * toMove, board[target], PROMOTION);
                     }
                 }
                 // push or capture
-                else if (gen != GEN_QSEARCH || board[target] != 0)
-                    moveList.add(new Move(start, target, PAWN * toMove, board[target], NORMAL));
+                else if (   (gen != GEN_QSEARCH || board[target] != 0)
+                         && (gen != GEN_QUIETS  || board[target] == 0))
+                    moves[count++] = Move.pack(start, target, PAWN * toMove, board[target], NORMAL);
             } 
 
             // enpassant
-            if (i != 0 && target == enpassant)
-                moveList.add(new Move(start, enpassant, PAWN * toMove, PAWN * -toMove, ENPASSANT));
+            if (i != 0 && target == enpassant && gen != GEN_QUIETS)
+                moves[count++] = Move.pack(start, enpassant, PAWN * toMove, PAWN * -toMove, ENPASSANT);
 
             // push two squares
             if (   i == 0 && gen != GEN_QSEARCH && board[target] == 0 
                 && (toMove == WHITE ? start >= SQ_a2 : start <= SQ_h7)) {
                 target -= 16 * toMove;
                 if (board[target] == 0) 
-                    moveList.add(new Move(start, target, PAWN * toMove, 0, PAWN_TWO));
+                    moves[count++] = Move.pack(start, target, PAWN * toMove, 0, PAWN_TWO);
             }
         }
+        return count;
     }
 
     /**
-     * Adds all pseudolegal castling moves to the given move list.
+     * Adds all pseudolegal castling moves to the given array. Returns the new number of moves
+     * in the array.
      */
-    public void genCastling(int start, List<Move> moveList) {
+    public int genCastling(int start, int[] moves, int count) {
         if (toMove == WHITE) {
             if (   canCastle(W_SHORT_CASTLE)
                 && board[SQ_f1] == 0 && board[SQ_g1] == 0
                 && !isAttacked(SQ_e1, BLACK) && !isAttacked(SQ_f1, BLACK))
-                moveList.add(new Move(SQ_e1, SQ_g1, W_KING, 0, CASTLE_SHORT));
+                moves[count++] = Move.pack(SQ_e1, SQ_g1, W_KING, 0, CASTLE_SHORT);
 
             if (   canCastle(W_LONG_CASTLE)
                 && board[SQ_d1] == 0 && board[SQ_c1] == 0 && board[SQ_b1] == 0
                 && !isAttacked(SQ_e1, BLACK) && !isAttacked(SQ_d1, BLACK))
-                moveList.add(new Move(SQ_e1, SQ_c1, W_KING, 0, CASTLE_LONG));
+                moves[count++] = Move.pack(SQ_e1, SQ_c1, W_KING, 0, CASTLE_LONG);
         }
         else {
             if (   canCastle(B_SHORT_CASTLE)
                 && board[SQ_f8] == 0 && board[SQ_g8] == 0
                 && !isAttacked(SQ_e8, WHITE) && !isAttacked(SQ_f8, WHITE))
-                moveList.add(new Move(SQ_e8, SQ_g8, B_KING, 0, CASTLE_SHORT));
+                moves[count++] = Move.pack(SQ_e8, SQ_g8, B_KING, 0, CASTLE_SHORT);
             
             if (   canCastle(B_LONG_CASTLE)
                 && board[SQ_d8] == 0 && board[SQ_c8] == 0 && board[SQ_b8] == 0 
                 && !isAttacked(SQ_e8, WHITE) && !isAttacked(SQ_d8, WHITE))
-                moveList.add(new Move(SQ_e8, SQ_c8, B_KING, 0, CASTLE_LONG));
+                moves[count++] = Move.pack(SQ_e8, SQ_c8, B_KING, 0, CASTLE_LONG);
         }
+        return count;
     }
 
     /**
      * Returns {@code true} if the square given by index is attacked by the given side.
      */
     public boolean isAttacked(int index, int side) {
-        if (side == WHITE) {
-            if (isLegalIndex(index + 15) && board[index + 15] == W_PAWN) return true;
-            if (isLegalIndex(index + 17) && board[index + 17] == W_PAWN) return true;
-        }
-        else {
-            if (isLegalIndex(index - 17) && board[index - 17] == B_PAWN) return true;
-            if (isLegalIndex(index - 15) && board[index - 15] == B_PAWN) return true;
-        }
-        if (nonsliderAttack(index, KING_DELTA, KING * side))                return true;
-        if (nonsliderAttack(index, KNIGHT_DELTA, KNIGHT * side))            return true;
-        if (sliderAttack(index, BISHOP_DELTA, BISHOP * side, QUEEN * side)) return true;
-        if (sliderAttack(index, ROOK_DELTA, ROOK * side, QUEEN * side))     return true;
-        
-        return false;
-    }
-    
-    /**
-     * Returns {@code true} if the given delta contains the given attacker.
-     */
-    public boolean nonsliderAttack(int start, int[] delta, int attacker) { 
-        for (int d : delta) {
-            int target = start + d;
-            if (isLegalIndex(target) && board[target] == attacker) return true;
-        }
-        return false;
-    }
+        int sq = Bitboard.square(index);
+        long occupied = sideBB[1];
+        long queens = pieceBB[QUEEN * side + 6];
 
-    /**
-     * Returns {@code true} if the given delta contains the given attackers.
-     */
-    public boolean sliderAttack(int start, int[] delta, int attacker1, int attacker2) {	
-        for (int d : delta) {
-            int target = start + d;
-            while (isLegalIndex(target)) {
-                int piece = board[target];
-                if (piece != 0) {
-                    if (piece == attacker1 || piece == attacker2) return true;
-                    break;
-                }
-                target += d;
-            }
-        }
-        return false;
+        // A square is attacked by a piece if the same piece on the square would attack it
+        return (   (Bitboard.pawnAttacks(-side, sq) & pieceBB[PAWN * side + 6])     != 0
+                || (Bitboard.KNIGHT_ATTACKS[sq]     & pieceBB[KNIGHT * side + 6])   != 0
+                || (Bitboard.KING_ATTACKS[sq]       & pieceBB[KING * side + 6])     != 0
+                || (Bitboard.bishopAttacks(sq, occupied)
+                    & (pieceBB[BISHOP * side + 6] | queens)) != 0
+                || (Bitboard.rookAttacks(sq, occupied)
+                    & (pieceBB[ROOK * side + 6] | queens)) != 0);
     }
 
     /**
@@ -581,8 +777,8 @@ public class Position implements Types {
      */
     public boolean hasOnlyPawns(int side) {
         if (pieces.size() > 18) return false;
-        for (int index : pieces) {
-            int piece = board[index] * side;
+        for (int i = 0; i < pieces.size(); i++) {
+            int piece = board[pieces.get(i)] * side;
             if (piece > 0 && piece != PAWN && piece != KING) return false;
         }
         return true;
@@ -592,9 +788,9 @@ public class Position implements Types {
      * Returns {@code true} if the current position is a repetition.
      */
     public boolean isRepeat() {
-        if (fiftyMoves < 4) return false;
-        for (int i = 4; i <= fiftyMoves; i += 2)
-            if (key == stateHist.get(stateHist.size() - i).key) return true;
+        int end = Math.min(fiftyMoves, histPly);
+        for (int i = 4; i <= end; i += 2)
+            if (key == keyHist[histPly - i]) return true;
         return false;
     }
 
@@ -602,10 +798,10 @@ public class Position implements Types {
      * Returns {@code true} if the current position is a three-fold repetition.
      */
     public boolean isThreefold() {
-        if (fiftyMoves < 4) return false;
+        int end = Math.min(fiftyMoves, histPly);
         int count = 0;
-        for (int i = 4; i <= fiftyMoves; i += 2)
-            if (key == stateHist.get(stateHist.size() - i).key) count++;
+        for (int i = 4; i <= end; i += 2)
+            if (key == keyHist[histPly - i]) count++;
         return (count >= 2);
     }
 
@@ -615,8 +811,8 @@ public class Position implements Types {
     public boolean insufficientMat() {
         if (pieces.size() > 3)  return false; // Too many pieces left
         if (pieces.size() == 2) return true;  // K vs K
-        for (int index : pieces) {
-            int piece = board[index];
+        for (int i = 0; i < pieces.size(); i++) {
+            int piece = board[pieces.get(i)];
             // Non-minor piece left
             if (   Math.abs(piece) == PAWN 
                 || Math.abs(piece) == ROOK 
@@ -641,7 +837,13 @@ public class Position implements Types {
             fboard[SQ_a2 + f] = -board[SQ_a7 + f];
             fboard[SQ_a1 + f] = -board[SQ_a8 + f];
         }
-        board = fboard;
+        board    = new int[120];
+        pieceBB  = new long[13];
+        sideBB   = new long[3];
+        material = new int[2];
+        psqt     = new int[2];
+        npm_w    = 0;
+        npm_b    = 0;
 
         int fcastling = 0;
         if (canCastle(W_SHORT_CASTLE)) fcastling |= B_SHORT_CASTLE;
@@ -656,12 +858,17 @@ public class Position implements Types {
 
         pieces.clear();
         for (int index = 0; index < 120; index++) {
-            if (board[index] != 0) {
+            if (fboard[index] != 0) {
+                setSquare(index, fboard[index]);
                 addPiece(index);
                 if (board[index] == W_KING) w_king = index;
                 if (board[index] == B_KING) b_king = index;
             }
         }
+        key         = Zobrist.getKey(this);
+        pawnKey     = Zobrist.getPawnKey(this);
+        materialKey = Zobrist.getMaterialKey(this);
+        setNetwork(network);
     }
 
     /**
@@ -700,45 +907,54 @@ public class Position implements Types {
         }
         result += " " + indexToAlg(enpassant);
         result += " " + fiftyMoves;
-        result += " " + (stateHist.size() / 2 + 1); // move number
+        result += " " + (histPly / 2 + 1); // move number
         return result;
     }
 
     /**
-     * Stores information needed to restore a Position object to its previous state after
-     * we unmake a move. Whenever a move is made on the board by calling makeMove() or 
-     * makeNullMove(), a State object must be pushed to the stateHist stack.
+     * Pushes the state of the current position and the piece captured by the move being made
+     * (0 if none) to the state history. Whenever a move is made on the board by calling
+     * makeMove() or makeNullMove(), the state must be saved first.
      */
-    private class State {
-        long key;
-        int  castling;
-        int  enpassant;
-        int  fiftyMoves;
-
-        public State(Position pos) {
-            this.key        = pos.key;
-            this.castling   = pos.castling;
-            this.enpassant  = pos.enpassant;
-            this.fiftyMoves = pos.fiftyMoves;
-        }
+    private void saveState(int captured) {
+        if (histPly == keyHist.length) growHistory();
+        keyHist      [histPly] = key;
+        pawnKeyHist  [histPly] = pawnKey;
+        materialKeyHist[histPly] = materialKey;
+        castlingHist [histPly] = castling;
+        enpassantHist[histPly] = enpassant;
+        fiftyHist    [histPly] = fiftyMoves;
+        capturedHist [histPly] = captured;
+        histPly++;
     }
 
     /**
-     * Pushes a State object for the current position to the stateHist stack.
+     * Pops the last state off the state history and uses it to revert the position. Returns
+     * the piece captured by the move being unmade.
      */
-    private void saveState() {
-        stateHist.add(new State(this));
+    private int revertState() {
+        histPly--;
+        key        = keyHist      [histPly];
+        pawnKey    = pawnKeyHist  [histPly];
+        materialKey = materialKeyHist[histPly];
+        castling   = castlingHist [histPly];
+        enpassant  = enpassantHist[histPly];
+        fiftyMoves = fiftyHist    [histPly];
+        return capturedHist[histPly];
     }
 
     /**
-     * Pop the last State off the stateHist stack and use to revert the position.
+     * Doubles the capacity of the state history. Only needed for very long games.
      */
-    private void revertState() {
-        State prev = stateHist.remove(stateHist.size() - 1);
-        key        = prev.key;
-        castling   = prev.castling;
-        enpassant  = prev.enpassant;
-        fiftyMoves = prev.fiftyMoves;
+    private void growHistory() {
+        int size = 2 * keyHist.length;
+        keyHist       = Arrays.copyOf(keyHist, size);
+        pawnKeyHist   = Arrays.copyOf(pawnKeyHist, size);
+        materialKeyHist = Arrays.copyOf(materialKeyHist, size);
+        castlingHist  = Arrays.copyOf(castlingHist, size);
+        enpassantHist = Arrays.copyOf(enpassantHist, size);
+        fiftyHist     = Arrays.copyOf(fiftyHist, size);
+        capturedHist  = Arrays.copyOf(capturedHist, size);
     }
 
     /* STATIC HELPERS */
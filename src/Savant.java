@@ -1,3 +1,4 @@
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.Scanner;
@@ -28,12 +29,10 @@ public class Savant implements Types {
     // TODO: contempt factor
     // TODO: in-check special move gen
     // TODO: move ordering for captures
-    // TODO: move gen stages
     // TODO: killer moves
-    // TODO: pawn hash table
-    // TODO: TT buckets
     
     public static Position pos;
+    public static Engine engine;
     public static String movesString;
     public static boolean inOpening;
 
@@ -60,7 +59,8 @@ public class Savant implements Types {
         //pos = new Position("7k/8/8/8/R2K3q/8/8/8 w - - 0 1");
         //pos = new Position("2k5/8/8/8/p7/8/8/4K3 b - - 0 1");
         
-        Engine.initialize();
+        engine      = new Engine();
+        if (new File(NETWORK_FILE).isFile()) engine.loadNetwork(NETWORK_FILE);
         inOpening   = true;
         movesString = "";
     }
@@ -70,7 +70,7 @@ public class Savant implements Types {
      */
     public static void consoleMode() throws FileNotFoundException {
         initNewGame();
-        Engine.useBook       = true;
+        engine.useBook       = true;
         Stack<Move> moveHist = new Stack<Move>();
         String gameOverMsg   = "";
         boolean engineWhite  = false;
@@ -116,18 +116,18 @@ public class Savant implements Types {
                 break;
 
             case "think":
-                Engine.search(pos);
+                engine.search(pos);
                 break;
 
             case "go":
                 isEngineTurn = true;
-                if (Engine.useBook && inOpening)
+                if (engine.useBook && inOpening)
                     move = Engine.getMoveObject(pos, Engine.getBookMove(movesString));
 
                 if (move == null) {
                     inOpening = false;
-                    Engine.search(pos);
-                    move = Engine.bestMove;
+                    engine.search(pos);
+                    move = engine.bestMove;
                 }
                 break;
 
@@ -161,6 +161,10 @@ public class Savant implements Types {
                 pos.print();
                 break;
 
+            case "eval":
+                System.out.print(engine.trace(pos));
+                break;
+
             case "help":
                 System.out.println("quit    - Exit the program");
                 System.out.println("think   - Tell the engine to think");
@@ -171,6 +175,7 @@ public class Savant implements Types {
                 System.out.println("playout - Engine will move for both sides");
                 System.out.println("fen     - Display the FEN string of the position");
                 System.out.println("print   - Display the board");
+                System.out.println("eval    - Display the evaluation breakdown");
                 break;
 
             default: // attempt to read move
@@ -0,0 +1,552 @@
+/**
+ * 
+ * @author Dalton He
+ * created 12-02-18
+ * 
+ */
+public class SearchThread implements Types, Runnable {
+    public Engine engine;         // the engine this thread searches for
+    public int id;                // thread index (0 for the main thread)
+    public Position pos;          // private copy of the position being searched
+    public Evaluate evaluator;    // private evaluation state
+    public int[][] quietHistory;  // history heuristic move scores
+        // quietHistory[pieceType][toIndex]
+    public int historyHalvings;   // number of times the history was halved, see updateHistory()
+    public long nodes;            // number of nodes searched by this thread
+    public SplitPoint splitPoint; // split point this thread is working for (null if none)
+    public long splits;           // number of split points created by this thread
+    public long splitCutoffs;     // number of split points cut off by this thread
+    public long staticEvals;      // number of static evaluations needed by this thread
+    public long ttEvalHits;       // static evaluations found in the hash table
+    public long evalCacheHits;    // static evaluations found in the eval cache
+    public long lazyEvals;        // static evaluations which skipped the expensive terms
+    private boolean lazyEval;     // true if the last static evaluation was only an estimate
+    private MovePicker[] pickers; // move picker and move buffer for each height
+
+    /**
+     * Creates a search thread for the given root position.
+     */
+    public SearchThread(Engine engine, int id, Position pos) {
+        this.engine  = engine;
+        this.id      = id;
+        this.pos     = new Position(pos);
+        evaluator    = engine.acquireEvaluator();
+        quietHistory = new int[13][120];
+        nodes        = 0;
+        pickers      = new MovePicker[HEIGHT_MAX];
+        for (int i = 0; i < HEIGHT_MAX; i++) pickers[i] = new MovePicker();
+    }
+
+    /**
+     * Returns {@code true} if this is the main thread, which controls the time and reports the
+     * search results. Workers at split points help the main thread and have index 0 as well.
+     */
+    public boolean isMain() {
+        return id == 0;
+    }
+
+    /**
+     * Iterative deepening loop for helper threads (Lazy SMP). Helpers share only the hash
+     * tables with the main thread, and skip some depths so that the threads are spread over
+     * different depths. The main thread stops the helpers by setting the abortedSearch flag.
+     */
+    public void run() {
+        int eval = 0;
+        int skip = (id - 1) % SMP_SKIP_SIZE.length;
+        for (int depth = 1; depth <= DEPTH_MAX && !engine.abortedSearch; depth++) {
+            if (((depth + SMP_SKIP_PHASE[skip]) / SMP_SKIP_SIZE[skip]) % 2 != 0) continue;
+            eval = aspirationSearch(depth, eval);
+        }
+    }
+
+    /**
+     * Searches the root position to the given depth. For the first few depths the search
+     * starts with an infinite window, afterwards with an aspiration window around the score
+     * of the previous iteration.
+     */
+    public int aspirationSearch(int depth, int prevEval) {
+        if (depth < 5) return alphaBeta(depth, 0, -VALUE_INF, VALUE_INF, NODE_PV);
+
+        int delta = INITIAL_WINDOW;
+        int alpha = Math.max(prevEval - delta, -VALUE_INF);
+        int beta  = Math.min(prevEval + delta, VALUE_INF);
+        int eval;
+
+        // Start with a small aspiration window. If we fail high/low, re-search with a
+        // bigger window until we succeed.
+        while (true) {
+            eval = alphaBeta(depth, 0, alpha, beta, NODE_PV);
+
+            if (engine.abortedSearch) break;
+
+            // In case of failing low/high increase aspiration window and re-search,
+            // otherwise exit the loop.
+            if (eval <= alpha) {
+                beta = (alpha + beta) / 2;
+                alpha = Math.max(eval - delta, -VALUE_INF);
+            }
+            else if (eval >= beta)
+                beta = Math.min(eval + delta, VALUE_INF);
+            else
+                break;
+
+            // Increase the window width
+            delta += delta / 4 + 5;
+            assert(alpha >= -VALUE_INF && beta <= VALUE_INF);
+        }
+        return eval;
+    }
+
+    /**
+     * The alpha-beta recursive search.
+     * @param ply      - Remaining number of plies to search
+     * @param height   - Number of plies from the root position
+     * @param alpha    - Highest score so far (lower bound)
+     * @param beta     - Lowest score that the opponent can guarantee (upper bound)
+     * @param nodeType - Expected node type
+     * @return           Score of the position from the for the side to move
+     */
+    private int alphaBeta(int ply, int height, int alpha, int beta, int nodeType) {
+
+        assert(-VALUE_INF <= alpha && alpha < beta && beta <= VALUE_INF);
+        assert(nodeType == NODE_PV || nodeType == NODE_CUT || nodeType == NODE_ALL);
+
+        // Check if time is up or if a split point above us was cut off. Only the main thread
+        // checks the timer.
+        if (stopped()) return 0;
+        if (isMain() && !engine.pondering && nodes % 1000 == 0) {
+            if ((System.currentTimeMillis() - engine.startTime) > engine.timeForMove) {
+                engine.abortedSearch = true;
+                return 0;
+            }
+        }
+
+        // Increment the node count
+        nodes++;
+
+        // Enter quiescence search when we reach a leaf node
+        if (ply <= 0) return quiescence(alpha, beta, height);
+
+        // Stop at the maximum height, the move buffers have no room for more plies
+        if (height >= HEIGHT_MAX - 1) return evaluator.staticEval(pos) * pos.toMove;
+
+        boolean rootNode = (nodeType == NODE_PV && height == 0);
+        int eval = 0;
+
+        if (!rootNode) {
+            // Check for draw
+            if (   pos.fiftyMoves >= 100
+                || pos.isRepeat()
+                || pos.insufficientMat())
+                return VALUE_DRAW;
+
+            // Mate distance pruning. If a shorter mate was found upward in the tree then there is
+            // no need to search further because we cannot possibly improve alpha. Same logic
+            // applies in the opposite condition of being mated (but with reversed signs).
+            // In this case return a fail-high score.
+            alpha = Math.max(matedScore(height), alpha);
+            beta  = Math.min(mateScore(height), beta);
+            if (alpha >= beta) return alpha;
+        }
+
+        // At non-PV nodes check for an early transposition table cutoff
+        long ttentry = engine.main_TT.get(pos.key);
+
+        // Deep results of earlier sessions may be found in the analysis cache
+        if (ttentry == 0 && ply >= CACHE_MIN_DEPTH && engine.cache != null)
+            ttentry = engine.cache.get(pos.key);
+
+        if (nodeType != NODE_PV && ttentry != 0 && TranspositionTable.depth(ttentry) >= ply) {
+            int ttType = TranspositionTable.type(ttentry);
+            int ttEval = TranspositionTable.eval(ttentry) * pos.toMove;
+            if (    ttType == BOUND_EXACT
+                || (ttType == BOUND_UPPER && ttEval <= alpha)
+                || (ttType == BOUND_LOWER && ttEval >= beta))
+                return ttEval;
+        }
+
+        // Extend the search if the side to move is in check
+        boolean inCheck = pos.inCheck(pos.toMove);
+        if (!rootNode && inCheck) ply++;
+
+        int standPat = 0;
+        boolean exactEval = false;
+        if (!rootNode && !inCheck) {
+            // Static evaluation of the position. The evaluation may stop early if the score is
+            // beyond all the pruning margins below.
+            standPat  = staticEval(ttentry, alpha - RAZOR_MARGIN, beta + EXT_FUTILITY_MARGIN)
+                        * pos.toMove;
+            exactEval = !lazyEval;
+
+            // Reverse futility pruning (RFP)
+            if (   (ply == 1 && standPat >= beta + FUTILITY_MARGIN)
+                || (ply == 2 && standPat >= beta + EXT_FUTILITY_MARGIN))
+                return standPat;
+
+            // Limited razoring
+            if (   ply == 3
+                && standPat <= alpha - RAZOR_MARGIN
+                && pos.pieces.size() > 6)
+                ply--;
+
+            // Null move pruning
+            if (   pos.nullAllowed
+                && nodeType != NODE_PV
+                && standPat >= beta
+                && !pos.hasOnlyPawns(pos.toMove)) {
+
+                pos.makeNullMove();
+
+                // Dynamic reduction factor based on ply and static evaluation
+                int R = (3 + ply / 4 + Math.min(2, (standPat - beta) / 200));
+                eval = -alphaBeta(ply-R-1, height+1, -beta, -beta+1, -nodeType);
+
+                pos.unmakeNullMove();
+
+                // Fail-high
+                if (eval >= beta) {
+                    // Do not return unproven mate scores
+                    if (eval >= VALUE_MATETHRESH) eval = beta;
+
+                    if (Math.abs(beta) < VALUE_MATETHRESH) return eval;
+                }
+            }
+        }
+
+        // Internal iterative deepening if we have no hash move
+        if (ply >= 6 && TranspositionTable.move(ttentry) == 0) {
+            eval = alphaBeta(ply-5, height, alpha, beta, nodeType);
+            ttentry = engine.main_TT.get(pos.key);
+        }
+
+        // Moves are generated in stages, so that a cutoff by the hash move or a capture
+        // saves the work of generating and sorting the remaining moves
+        MovePicker picker = pickers[height];
+        picker.init(pos, TranspositionTable.move(ttentry), quietHistory);
+
+        int bestMove  = 0;
+        int bestEval  = -VALUE_INF;
+        int moveCount = 0;
+        int move;
+
+        // Move loop
+        while ((move = picker.next()) != 0) {
+
+            // Young brothers wait concept (YBWC): once the first move has been searched without
+            // a cutoff, the remaining moves may be searched in parallel by idle workers.
+            if (   moveCount > 0
+                && !rootNode
+                && ply >= SPLIT_MIN_DEPTH
+                && engine.splitPool != null) {
+                SplitPoint sp = new SplitPoint(this, picker, move, ply, height, alpha, beta,
+                                               nodeType, inCheck, standPat, bestEval, bestMove,
+                                               moveCount);
+                splits++;
+                sp.search();
+                alpha     = sp.alpha;
+                bestEval  = sp.bestEval;
+                bestMove  = sp.bestMove;
+                moveCount = sp.moveCount;
+                break;
+            }
+
+            // MultiPV: skip root moves whose PV was already found in this iteration
+            if (rootNode && isMain() && engine.pvIndex > 0 && engine.isExcluded(move)) continue;
+
+            pos.makeMove(move);
+
+            // Check for legality
+            if (pos.inCheck(-pos.toMove)) {
+                pos.unmakeMove(move);
+                continue;
+            }
+
+            moveCount++;
+
+            eval = searchMove(move, ply, height, alpha, beta, nodeType, inCheck, standPat,
+                              moveCount, rootNode);
+
+            pos.unmakeMove(move);
+
+            // Don't look at the remaining moves once the search was stopped
+            if (stopped()) break;
+
+            // Skip moves which were pruned
+            if (eval == VALUE_NONE) continue;
+
+            // Check for a new best move
+            if (eval > bestEval) {
+                bestEval = eval;
+
+                if (eval > alpha) {
+                    bestMove = move;
+                    if (rootNode && isMain() && engine.pvIndex == 0) engine.bestMove = new Move(move);
+
+                    // Update PV hash table at PV nodes even after fail-high. Only the main
+                    // thread's PV is reported, so helpers leave the table alone.
+                    if (nodeType == NODE_PV && isMain())
+                        engine.pv_TT.add(pos.key, Move.toInt(bestMove));
+
+                    if (nodeType == NODE_PV && eval < beta)
+                        alpha = eval; // Update alpha. Always alpha < beta
+                    else {
+                        assert(eval >= beta); // Fail-high
+                        updateHistory(move, ply);
+                        break; // cutoff
+                    }
+                }
+            }
+        }
+
+        // The result is meaningless if the search was stopped, so don't store it
+        if (stopped()) return 0;
+
+        // No legal moves were found: return mate/stalemate score
+        if (moveCount == 0) bestEval = (inCheck ? matedScore(height) : VALUE_DRAW);
+
+        // If we pruned all moves without searching, return a fail-low score
+        if (bestEval == -VALUE_INF) bestEval = alpha;
+
+        // Update the transposition table and, for deep searches, the analysis cache. Later
+        // MultiPV passes leave the root entry alone, so that it keeps the best move for the
+        // next iteration.
+        if (!(rootNode && isMain() && engine.pvIndex > 0)) {
+            int type = (bestEval >= beta ? BOUND_LOWER
+                                         : (nodeType == NODE_PV && bestMove != 0) ? BOUND_EXACT
+                                                                                     : BOUND_UPPER);
+            int staticEval = (exactEval ? standPat * pos.toMove : VALUE_NONE);
+            engine.main_TT.add(pos.key, Move.toInt(bestMove), ply, bestEval * pos.toMove, type,
+                               staticEval);
+            // The cache may outlive the evaluator, so it does not keep the static evaluation
+            if (ply >= CACHE_MIN_DEPTH && engine.cache != null)
+                engine.cache.add(pos.key, Move.toInt(bestMove), ply, bestEval * pos.toMove, type);
+        }
+
+        assert(bestEval > -VALUE_INF && bestEval < VALUE_INF);
+
+        return bestEval;
+    }
+
+    /**
+     * Searches a move that has been made on the board and is legal. Returns the score from
+     * the point of view of the side that made the move, or VALUE_NONE if the move was pruned.
+     */
+    int searchMove(int move,
+                   int ply,
+                   int height,
+                   int alpha,
+                   int beta,
+                   int nodeType,
+                   boolean inCheck,
+                   int standPat,
+                   int moveCount,
+                   boolean rootNode) {
+
+        int eval = 0;
+        boolean doFullDepthSearch;
+        boolean pruningOk =   (!rootNode
+                            && !inCheck
+                            && !pos.inCheck(pos.toMove)
+                            && Move.type(move) != PROMOTION
+                            && Move.captured(move) == 0);
+
+        // Futility pruning
+        if (   pruningOk
+            && Math.abs(alpha) < VALUE_MATETHRESH
+            && Math.abs(beta)  < VALUE_MATETHRESH
+            && (   (ply == 1 && standPat <= alpha - FUTILITY_MARGIN)
+                || (ply == 2 && standPat <= alpha - EXT_FUTILITY_MARGIN)))
+            return VALUE_NONE;
+
+        // Late move reductions (LMR)
+        if (pruningOk && ply >= 3 && moveCount > 1) {
+
+            // Dynamic reduction factor based on move count and ply
+            int R = Engine.depthReduction[Math.min(63, ply)][Math.min(63, moveCount)];
+
+            // Increase/decrease reduction based on node type
+            if      (nodeType == NODE_CUT) R += 2;
+            else if (nodeType == NODE_PV)  R--;
+
+            R = Math.max(0, R);
+            eval = -alphaBeta(ply-R-1, height+1, -alpha-1, -alpha, NODE_CUT);
+
+            doFullDepthSearch = (eval > alpha && R != 0);
+        }
+        else doFullDepthSearch = (nodeType != NODE_PV || moveCount > 1);
+
+        // Full-depth PVS when LMR is skipped or fails high
+        if (doFullDepthSearch)
+            eval = -alphaBeta(ply-1, height+1, -alpha-1, -alpha,
+                              nodeType == NODE_PV ? NODE_CUT : -nodeType);
+
+        // For PV nodes only, do a full-width search on the first move or after a fail-high
+        if (nodeType == NODE_PV && (moveCount == 1 || (eval > alpha && eval < beta)))
+            eval = -alphaBeta(ply-1, height+1, -beta, -alpha, NODE_PV);
+
+        return eval;
+    }
+
+    /**
+     * Updates the quiet move sorting heuristics after the given move caused a cutoff.
+     */
+    void updateHistory(int move, int ply) {
+        if (Move.captured(move) != 0) return;
+
+        // History heuristic
+        int piece  = Move.piece(move);
+        int target = Move.target(move);
+        quietHistory[piece + 6][target] += ply * ply;
+
+        // Prevent history overflow; also has the effect of weighing recently
+        // searched moves more heavily during move ordering
+        if (quietHistory[piece + 6][target] >= HISTORY_MAX) {
+            for (int i = 0; i < 13; i++)
+                for (int j = 0; j < 120; j++)
+                    quietHistory[i][j] >>= 1;
+            historyHalvings++;
+        }
+    }
+
+    /**
+     * Returns {@code true} if the search was aborted, or if this thread is working for a split
+     * point whose node (or any node above it) has already failed high.
+     */
+    boolean stopped() {
+        return engine.abortedSearch || (splitPoint != null && splitPoint.isCancelled());
+    }
+
+    /**
+     * The quiescence search.
+     */
+    private int quiescence(int alpha, int beta, int height) {
+        assert(-VALUE_INF <= alpha && alpha < beta && beta <= VALUE_INF);
+
+        // Quiescence searches can grow large, so check for a stop here as well
+        if (stopped()) return 0;
+
+        // Check for draw
+        if (pos.insufficientMat()) return VALUE_DRAW;
+
+        // Stop at the maximum height, the move buffers have no room for more plies
+        if (height >= HEIGHT_MAX - 1) return evaluator.staticEval(pos) * pos.toMove;
+
+        // Transposition table lookup
+        long ttentry = engine.qsearch_TT.get(pos.key);
+        if (ttentry != 0) {
+            int ttType = TranspositionTable.type(ttentry);
+            int ttEval = TranspositionTable.eval(ttentry) * pos.toMove;
+            if (    ttType == BOUND_EXACT
+                || (ttType == BOUND_UPPER && ttEval <= alpha)
+                || (ttType == BOUND_LOWER && ttEval >= beta))
+                return ttEval;
+        }
+
+        // Get a standing evaluation first
+        int standPat   = staticEval(ttentry, alpha, beta) * pos.toMove;
+        int staticEval = (lazyEval ? VALUE_NONE : standPat * pos.toMove);
+        if (standPat >= beta) {
+            engine.qsearch_TT.add(pos.key, 0, DEPTH_QS, standPat * pos.toMove, BOUND_LOWER,
+                                  staticEval);
+            return standPat;
+        }
+        if (standPat > alpha) alpha = standPat;
+
+        // Captures and promotions only
+        MovePicker picker = pickers[height];
+        picker.initQuiescence(pos);
+
+        int bestMove = 0;
+        int move;
+
+        // Loop through all the moves
+        while ((move = picker.next()) != 0) {
+
+            assert(Move.captured(move) != 0 || Move.type(move) == PROMOTION);
+
+            // Delta pruning
+            if (pos.pieces.size() > 6) {
+                int materialGain = VALUE_PIECE[Math.abs(Move.captured(move))];
+                if (Move.type(move) == PROMOTION) materialGain += VALUE_PROMOTION;
+                if (standPat + materialGain <= alpha - DELTA_MARGIN) continue;
+            }
+
+            pos.makeMove(move);
+
+            // Check if the move leaves our king in check
+            if (pos.inCheck(-pos.toMove)) {
+                pos.unmakeMove(move);
+                continue;
+            }
+
+            int eval = -quiescence(-beta, -alpha, height + 1);
+
+            pos.unmakeMove(move);
+
+            // Don't store the results of an unfinished search
+            if (stopped()) return 0;
+
+            if (eval >= beta) {
+                engine.qsearch_TT.add(pos.key, Move.toInt(move), DEPTH_QS, eval * pos.toMove,
+                                      BOUND_LOWER, staticEval);
+                return eval;
+            }
+            if (eval > alpha) {
+                bestMove = Move.toInt(move);
+                alpha = eval;
+            }
+        }
+        // Update the transposition table
+        engine.qsearch_TT.add(pos.key, bestMove, DEPTH_QS, alpha * pos.toMove,
+                              (bestMove != 0 ? BOUND_EXACT : BOUND_UPPER), staticEval);
+
+        assert(alpha > -VALUE_INF && alpha < VALUE_INF);
+
+        return alpha;
+    }
+
+    /**
+     * Returns the static evaluation of the current position from white's perspective. The
+     * evaluation stored in the given hash table entry (0 if none) is used if there is one,
+     * otherwise the eval cache is tried before evaluating the position. Only scores inside
+     * the given window (from the side to move's perspective) need to be exact. If the
+     * evaluation returns an estimate outside the window, lazyEval is set and the estimate is
+     * not cached.
+     */
+    private int staticEval(long ttentry, int alpha, int beta) {
+        staticEvals++;
+        lazyEval = false;
+        int eval = (ttentry != 0 ? TranspositionTable.staticEval(ttentry) : VALUE_NONE);
+        if (eval != VALUE_NONE) {
+            ttEvalHits++;
+            return eval;
+        }
+        eval = engine.eval_cache.get(pos.key);
+        if (eval != VALUE_NONE) {
+            evalCacheHits++;
+            return eval;
+        }
+        eval = (pos.toMove == WHITE ? evaluator.staticEval(pos, alpha, beta)
+                                    : evaluator.staticEval(pos, -beta, -alpha));
+        if (evaluator.lazy) {
+            lazyEvals++;
+            lazyEval = true;
+        }
+        else engine.eval_cache.add(pos.key, eval);
+        return eval;
+    }
+
+    /**
+     * Returns the value of mate in ply moves from the root.
+     */
+    private static int mateScore(int ply) {
+        return VALUE_MATE - ply;
+    }
+
+    /**
+     * Returns the value of being mated in ply moves from the root.
+     */
+    private static int matedScore(int ply) {
+        return -(VALUE_MATE - ply);
+    }
+}
@@ -0,0 +1,198 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * 
+ * @author Dalton He
+ * created 12-04-18
+ * 
+ */
+public class SplitPoint implements Types {
+    public SplitPoint parent;     // split point of the thread that created this one
+    public SearchThread master;   // thread that created the split point
+    public Position pos;          // position at the split node, not modified while split
+    public MovePicker picker;     // picks the moves of the split node
+    public int ply;               // remaining depth of the split node
+    public int height;            // height of the split node
+    public int beta;              // beta bound of the split node
+    public int nodeType;          // node type of the split node
+    public boolean inCheck;       // true if the side to move is in check
+    public int standPat;          // static evaluation of the split node
+    private int[][] history;      // history of the master at the split, copied by each worker
+
+    // Search results shared by all workers. Access only while holding the lock.
+    public int alpha;             // current alpha bound
+    public int bestEval;          // best score so far
+    public int bestMove;          // best move so far in packed form, 0 if none
+    public int moveCount;         // number of legal moves searched so far
+    private int pendingMove;      // move taken from the picker but not handed out yet
+
+    public volatile boolean cutoff; // true once a move has failed high
+
+    /**
+     * Creates a split point for the node currently searched by the given thread. The given
+     * move was taken from the picker by the master thread but not searched yet, so it is the
+     * first move handed out.
+     */
+    public SplitPoint(SearchThread master,
+                      MovePicker picker,
+                      int pendingMove,
+                      int ply,
+                      int height,
+                      int alpha,
+                      int beta,
+                      int nodeType,
+                      boolean inCheck,
+                      int standPat,
+                      int bestEval,
+                      int bestMove,
+                      int moveCount) {
+        this.parent      = master.splitPoint;
+        this.master      = master;
+        this.pos         = master.pos;
+        this.picker      = picker;
+        this.pendingMove = pendingMove;
+        this.ply         = ply;
+        this.height      = height;
+        this.alpha       = alpha;
+        this.beta        = beta;
+        this.nodeType    = nodeType;
+        this.inCheck     = inCheck;
+        this.standPat    = standPat;
+        this.bestEval    = bestEval;
+        this.bestMove    = bestMove;
+        this.moveCount   = moveCount;
+        this.history     = new int[13][];
+        for (int i = 0; i < 13; i++) history[i] = master.quietHistory[i].clone();
+    }
+
+    /**
+     * Searches the remaining moves of the split node on the engine's fork/join pool and waits
+     * for the result. The calling thread takes part in the search while it waits.
+     */
+    public void search() {
+        // One worker for each idle thread of the pool, counting the calling thread, but no more
+        // than there are moves left
+        ForkJoinPool pool = master.engine.splitPool;
+        int idle    = 1 + pool.getParallelism() - Math.max(1, pool.getActiveThreadCount());
+        int left    = (pendingMove != 0 ? 1 : 0) + picker.remaining();
+        int workers = Math.max(1, Math.min(idle, left));
+        Worker[] tasks = new Worker[workers];
+        for (int i = 0; i < workers; i++) tasks[i] = new Worker();
+        ForkJoinTask.invokeAll(tasks);
+    }
+
+    /**
+     * Returns {@code true} if this split point or any split point above it was cut off, in
+     * which case the result of the search is no longer needed.
+     */
+    public boolean isCancelled() {
+        for (SplitPoint sp = this; sp != null; sp = sp.parent)
+            if (sp.cutoff) return true;
+        return false;
+    }
+
+    /**
+     * Returns the next move to search in packed form, or 0 if there are no moves left.
+     */
+    private synchronized int nextMove() {
+        if (cutoff) return 0;
+        if (pendingMove != 0) {
+            int move = pendingMove;
+            pendingMove = 0;
+            return move;
+        }
+        return picker.next();
+    }
+
+    /**
+     * Updates the shared search results with the score of a move searched by a worker.
+     */
+    private synchronized void update(SearchThread worker, int move, int eval) {
+        if (cutoff || eval <= bestEval) return;
+        bestEval = eval;
+
+        if (eval > alpha) {
+            bestMove = move;
+
+            // Update PV hash table at PV nodes even after fail-high
+            if (nodeType == NODE_PV) master.engine.pv_TT.add(pos.key, Move.toInt(move));
+
+            if (nodeType == NODE_PV && eval < beta)
+                alpha = eval; // Update alpha. Always alpha < beta
+            else {
+                assert(eval >= beta); // Fail-high
+                master.updateHistory(move, ply); // The master waits for the workers
+                worker.splitCutoffs++;
+                cutoff = true; // Tell the other workers to stop
+            }
+        }
+    }
+
+    /**
+     * Adds the history scores gained by a worker to the history of the master, which waits
+     * for the workers and does not update its history itself meanwhile. If the worker halved
+     * its history to prevent overflow, the history of the master is halved as often, and the
+     * gain is measured against the snapshot halved as often, so it is never negative. The
+     * halvings count for the master too, in case it is a worker of another split point.
+     */
+    private synchronized void mergeHistory(SearchThread worker) {
+        int shift = Math.min(worker.historyHalvings, 31);
+        for (int i = 0; i < 13; i++)
+            for (int j = 0; j < 120; j++)
+                master.quietHistory[i][j] = (master.quietHistory[i][j] >> shift)
+                                          + worker.quietHistory[i][j] - (history[i][j] >> shift);
+        master.historyHalvings += shift;
+    }
+
+    /**
+     * A worker takes moves from the split point one at a time and searches them with its own
+     * copy of the position until no moves are left or the split point is cut off.
+     */
+    private class Worker extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        protected void compute() {
+            // Workers which start after the last move was handed out need no search thread
+            int move = nextMove();
+            if (move == 0) return;
+
+            SearchThread worker = master.engine.acquireWorker(pos);
+            worker.splitPoint = SplitPoint.this;
+
+            // Each worker updates its own copy of the master's history, as the tables are not
+            // thread-safe
+            for (int i = 0; i < 13; i++)
+                System.arraycopy(history[i], 0, worker.quietHistory[i], 0, 120);
+            worker.historyHalvings = 0;
+
+            do {
+                worker.pos.makeMove(move);
+
+                // Check for legality
+                if (worker.pos.inCheck(-worker.pos.toMove)) {
+                    worker.pos.unmakeMove(move);
+                    continue;
+                }
+
+                int count, bound;
+                synchronized (SplitPoint.this) {
+                    count = ++moveCount;
+                    bound = alpha;
+                }
+
+                int eval = worker.searchMove(move, ply, height, bound, beta, nodeType, inCheck,
+                                             standPat, count, false);
+
+                worker.pos.unmakeMove(move);
+
+                if (eval != VALUE_NONE && !worker.stopped()) update(worker, move, eval);
+            } while (!worker.stopped() && (move = nextMove()) != 0);
+
+            mergeHistory(worker);
+            worker.splitPoint = null;
+            master.engine.releaseWorker(worker);
+        }
+    }
+}
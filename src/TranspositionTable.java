@@ -1,3 +1,5 @@
+import java.util.Arrays;
+
 /**
  * 
  * @author Dalton He
@@ -5,68 +7,202 @@
  * 
  */
 public class TranspositionTable implements Types {
-    private HashtableEntry[] table;
-    private int size;
+    // The table is shared by all search threads without locking. Each entry takes two
+    // consecutive longs of the table, the zobrist key XORed with the data word, and the data
+    // word itself. If two threads write the same slot at once, the reader may see the key word
+    // of one entry and the data word of the other. The XOR of the two words then no longer
+    // gives the key of the position, so the mixed entry is treated as a miss.
+    //
+    //     move         bits  0-15
+    //     eval         bits 16-31 (from white's perspective, signed)
+    //     static eval  bits 32-47 (from white's perspective, signed, VALUE_NONE if unknown)
+    //     depth        bits 48-55 (signed)
+    //     type         bits 56-57
+    //     generation   bits 58-62 (generation of the search that stored the entry)
+    //     used         bit  63    (set for every stored entry, so a data word is never 0)
+    // memory usage per entry: 16 bytes
+    //
+    // Entries are grouped in buckets of 4 (64 bytes, the size of a cache line). A position
+    // may be stored in any entry of the bucket given by its key, so a probe reads one line.
+    // The bucket of a key is found by multiplying 32 bits of the key by the number of buckets
+    // and keeping the upper half of the product, which works for any table size.
+    private static final long ENTRY_USED  = 1L << 63;
+    private static final int  BUCKET_SIZE = 4;
+
+    private long[] table;
+    private int buckets;
+    private int generation; // incremented at the start of every search, modulo 32
 
     /**
-     * Creates a hash table with the given size.
+     * Creates a hash table with the given number of entries (rounded down to whole buckets).
      */
     public TranspositionTable(int size) {
-        this.size = size;
-        clear();
+        resize(size);
+    }
+
+    /**
+     * Reallocates the hash table with the given number of entries (rounded down to whole
+     * buckets). All existing entries are lost.
+     */
+    public void resize(int size) {
+        table      = null; // Let the old table be collected before allocating the new one
+        buckets    = Math.max(1, size / BUCKET_SIZE);
+        table      = new long[2 * BUCKET_SIZE * buckets];
+        generation = 0;
     }
 
     /**
      * Clears the hash table.
      */
     public void clear() {
-        table = new HashtableEntry[size];
+        Arrays.fill(table, 0);
+        generation = 0;
     }
 
     /**
-     * Increments the age of all existing entries.
+     * Starts a new search generation. Entries from earlier searches are not modified, they
+     * only become older relative to the current generation and are replaced first.
      */
     public void update() {
-        for (int i = 0; i < HASH_SIZE_TT; i++) {
-            if (table[i] != null) table[i].age++;
-        }
+        generation = (generation + 1) & 0x1F;
     }
 
     /**
-     * Returns the hash table entry for the given zobrist key, or {@code null} if not found.
+     * Returns the data word of the hash table entry for the given zobrist key, or 0 if not
+     * found. The fields are read with move(), eval(), staticEval(), depth() and type().
      */
-    public HashtableEntry get(long key) {
-        int hashKey = (int) (key % size);
-        HashtableEntry entry = table[hashKey];
-        return ((entry != null && key == entry.key) ? entry : null);
+    public long get(long key) {
+        int bucket = bucketIndex(key);
+        for (int i = bucket; i < bucket + 2 * BUCKET_SIZE; i += 2) {
+            long data = table[i + 1];
+            if ((table[i] ^ data) == key) return data;
+        }
+        return 0;
     }
 
     /**
      * Adds a PV table entry
      */
     public void add(long key, int move) {
-        int hashKey = (int) (key % size);
-        table[hashKey] = new HashtableEntry(key, move);
-    }
-
-    /**
-     * Adds a TT entry
-     */
-    public void add(long key, int move, int depth, int eval, int type) {
-        int hashKey = (int) (key % size);
-                
-        if (depth == DEPTH_QS) // quiescence search entry
-            table[hashKey] = new HashtableEntry(key, move, DEPTH_QS, eval, type);
-        else { // regular search entry
-            HashtableEntry entry = table[hashKey];
-            // If an entry for the same position exists, replace if the search depth was higher.
-            // If an entry exists for a different position, replace if it was from an old search.
-            boolean replace;        
-            if      (entry == null)    replace = true;
-            else if (key == entry.key) replace = (depth > entry.depth);
-            else                       replace = (depth > entry.depth - 3 * entry.age);
-            
-            if (replace) table[hashKey] = new HashtableEntry(key, move, depth, eval, type);
+        store(findSlot(key), key, pack(move, 0, 0, 0, VALUE_NONE));
+    }
+
+    /**
+     * Adds a TT entry. The static evaluation of the position is stored as well, so that a
+     * later visit can skip evaluating it (VALUE_NONE if it was not evaluated).
+     */
+    public void add(long key, int move, int depth, int eval, int type, int staticEval) {
+        int slot = findSlot(key);
+
+        // If an entry for the same position exists, replace if the search depth was higher.
+        // Quiescence search entries always replace.
+        long entry = table[slot + 1];
+        if (   depth != DEPTH_QS
+            && entry != 0
+            && (table[slot] ^ entry) == key
+            && depth <= depth(entry)) return;
+
+        store(slot, key, pack(move, depth, eval, type, staticEval));
+    }
+
+    /**
+     * Returns the index of the entry to use for the given zobrist key: the entry of the same
+     * position if there is one, otherwise the least valuable entry of the bucket. Empty entries
+     * are worth the least, then entries with a low depth and entries from old searches. Ties
+     * are broken by the key, so that positions with the same value spread over the bucket.
+     */
+    private int findSlot(long key) {
+        int bucket = bucketIndex(key);
+        int first  = (int) key;
+        int slot   = bucket;
+        int worst  = Integer.MAX_VALUE;
+        for (int n = 0; n < BUCKET_SIZE; n++) {
+            int i = bucket + 2 * ((first + n) & (BUCKET_SIZE - 1));
+            long entry = table[i + 1];
+            int value;
+            if (entry == 0) value = Integer.MIN_VALUE;
+            else {
+                if ((table[i] ^ entry) == key) return i;
+                value = depth(entry) - 3 * relativeAge(entry);
+            }
+            if (value < worst) {
+                worst = value;
+                slot  = i;
+            }
         }
+        return slot;
+    }
+
+    /**
+     * Returns the index of the first long of the bucket of the given zobrist key.
+     */
+    private int bucketIndex(long key) {
+        return 2 * BUCKET_SIZE * (int) (((key >>> 31 & 0xFFFFFFFFL) * buckets) >>> 32);
+    }
+
+    /**
+     * Writes an entry to the given slot of the table, tagged with the current generation.
+     */
+    private void store(int slot, long key, long data) {
+        data |= (long) generation << 58;
+        table[slot]     = key ^ data;
+        table[slot + 1] = data;
+    }
+
+    /**
+     * Returns the number of searches since the given entry was stored.
+     */
+    private int relativeAge(long entry) {
+        return (generation - ((int) (entry >>> 58) & 0x1F)) & 0x1F;
+    }
+
+    /* ENTRY HELPERS */
+
+    /**
+     * Returns the data word of an entry with the given fields and generation 0.
+     */
+    public static long pack(int move, int depth, int eval, int type, int staticEval) {
+        return (move & 0xFFFFL)
+             | (eval & 0xFFFFL)       << 16
+             | (staticEval & 0xFFFFL) << 32
+             | (depth & 0xFFL)        << 48
+             | (long) type            << 56
+             | ENTRY_USED;
+    }
+
+    /**
+     * Returns the best move of the given entry in integer form (see Move.toInt()).
+     */
+    public static int move(long entry) {
+        return (int) (entry & 0xFFFF);
+    }
+
+    /**
+     * Returns the score of the given entry, from white's perspective.
+     */
+    public static int eval(long entry) {
+        return (short) (entry >>> 16);
+    }
+
+    /**
+     * Returns the static evaluation of the position of the given entry, from white's
+     * perspective, or VALUE_NONE if it is not known.
+     */
+    public static int staticEval(long entry) {
+        return (short) (entry >>> 32);
+    }
+
+    /**
+     * Returns the search depth of the given entry.
+     */
+    public static int depth(long entry) {
+        return (byte) (entry >>> 48);
+    }
+
+    /**
+     * Returns the bound type of the eval of the given entry.
+     */
+    public static int type(long entry) {
+        return (int) (entry >>> 56) & 0x3;
     }
 }
\ No newline at end of file
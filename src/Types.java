@@ -146,6 +146,7 @@ public interface Types {
     public static final int GEN_ALL     = 0;
     public static final int GEN_SEARCH  = 1;
     public static final int GEN_QSEARCH = 2;
+    public static final int GEN_QUIETS  = 3;
 
     // Piece deltas
     public static final int[] PAWN_DELTA    = {  16,  15,  17                      };
@@ -165,11 +166,21 @@ public interface Types {
     public static final int VALUE_MATE       = 10000;
     public static final int VALUE_MATETHRESH = 9900;
     public static final int VALUE_DRAW       = 0;
+    public static final int VALUE_NONE       = 10002;
     
     // Depth
     public static final int DEPTH_MAX = 99;
     public static final int DEPTH_QS  = -1;
 
+    // Maximum search height (plies from the root, including quiescence search), and maximum
+    // number of pseudolegal moves in a position. Used to size the per-ply move buffers.
+    public static final int HEIGHT_MAX = 128;
+    public static final int MAX_MOVES  = 256;
+
+    // Initial capacity of the state history of a position, in plies. The history grows if a
+    // game is longer than this.
+    public static final int STATES_MAX = 1024;
+
     // Node type
     public static final int NODE_PV  =  0;
     public static final int NODE_CUT =  1;
@@ -181,17 +192,60 @@ public interface Types {
     public static final int FUTILITY_MARGIN     = 200;
     public static final int EXT_FUTILITY_MARGIN = 450;
     public static final int RAZOR_MARGIN        = 800;
+    public static final int LAZY_MARGIN         = 400;
     public static final int HISTORY_MAX         = 50000;
 
+    // Lazy SMP: helper thread i skips depth d if ((d + SKIP_PHASE[i]) / SKIP_SIZE[i]) is odd
+    public static final int[] SMP_SKIP_SIZE  = { 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 3, 3, 4, 4, 4, 4, 4, 4, 4, 4 };
+    public static final int[] SMP_SKIP_PHASE = { 0, 1, 0, 1, 2, 3, 0, 1, 2, 3, 4, 5, 0, 1, 2, 3, 4, 5, 6, 7 };
+    public static final int   THREADS_MAX    = 128;
+
+    // Split search: minimum remaining depth of a node for its moves to be searched in parallel
+    public static final int SPLIT_MIN_DEPTH = 4;
+
+    // Maximum number of principal variations in MultiPV mode
+    public static final int MULTIPV_MAX = 256;
+
     // Move ordering
     public static final int PRIORITY_HASH_MOVE = 1000;
     public static final int PRIORITY_PROMOTION = 100;
     public static final int PRIORITY_CAPTURE   = 50;
     public static final int PRIORITY_KILLER    = 40;
 
-    // Transposition table
-    public static final int HASH_SIZE_TT = 65536;
+    // Move picker stages
+    public static final int STAGE_HASH_MOVE    = 0;
+    public static final int STAGE_GEN_CAPTURES = 1;
+    public static final int STAGE_CAPTURES     = 2;
+    public static final int STAGE_GEN_QUIETS   = 3;
+    public static final int STAGE_QUIETS       = 4;
+    public static final int STAGE_DONE         = 5;
+
+    // Transposition table. The size of the main and quiescence search tables is set in MB (both
+    // tables together), the size of the PV table in entries.
+    public static final int HASH_DEFAULT = 16;
+    public static final int HASH_MAX     = 16384;
     public static final int HASH_SIZE_PV = 16384;
+
+    // Analysis cache. Results of searches with at least CACHE_MIN_DEPTH plies remaining are
+    // stored in the cache file. The size is set in MB.
+    public static final int CACHE_MIN_DEPTH = 8;
+    public static final int CACHE_DEFAULT   = 64;
+    public static final int CACHE_MAX       = 2047;
+    public static final long ZOBRIST_SEED   = 0x5A7A4E7L;
+
+    // Evaluation network, loaded at startup if the file exists (see Network)
+    public static final String NETWORK_FILE = "savant.nnue";
+
+    // Pawn hash table of each search thread, size in entries (must be a power of 2)
+    public static final int PAWN_HASH_SIZE = 8192;
+
+    // Material hash table of each search thread, size in entries (must be a power of 2)
+    public static final int MATERIAL_HASH_SIZE = 8192;
+
+    // Static eval cache shared by all search threads, size in entries (a power of 2, at most
+    // 65536)
+    public static final int EVAL_CACHE_SIZE = 65536;
+
     public static final int BOUND_EXACT  = 0;
     public static final int BOUND_LOWER  = 1;
     public static final int BOUND_UPPER  = 2;
@@ -205,6 +259,11 @@ public interface Types {
     // Phase threshold
     public static final int MIDGAME_THRESH = 7336;
     public static final int ENDGAME_THRESH = 1882;
+
+    // Endgame scale factors. The endgame score is multiplied by scale / SCALE_NORMAL.
+    // SCALE_OCB marks endgames with opposite colored bishops, scaled by pawn asymmetry.
+    public static final int SCALE_NORMAL = 160;
+    public static final int SCALE_OCB    = -1;
     
     // Piece value [MG | EG]
     public static final int[] VALUE_PAWN   = {   65,  100 };
@@ -1,4 +1,5 @@
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 
@@ -10,33 +11,97 @@ import java.io.InputStreamReader;
  */
 public class UCI implements Types{
     public static Position pos;
+    public static Engine engine;
+    public static Thread searchThread;           // thread of the current background search, if any
+    public static String cacheFile = "";         // file of the analysis cache, empty if none
+    public static int cacheSize = CACHE_DEFAULT; // size of a new analysis cache in MB
+    public static boolean cacheReadOnly;         // true to only read the analysis cache
+    public static String evalFile = NETWORK_FILE; // file of the evaluation network
 
     /**
-     * Run the program in UCI mode.
+     * Run the program in UCI mode. Searches run on a background thread so that commands such
+     * as stop and isready are answered while the engine is thinking.
      */
     public static void main() throws IOException {
-        Engine.uciMode = true;		
+        engine = new Engine();
+        engine.uciMode = true;		
+        if (new File(evalFile).isFile()) engine.loadNetwork(evalFile);
         BufferedReader input = new BufferedReader(new InputStreamReader(System.in));
 
         while (true) {
             String command = input.readLine();
+            if (command == null) command = "quit"; // The GUI closed the input stream
 
             if (command.equals("uci")) {
                 System.out.println("id name SAVANT v1.0");
                 System.out.println("id author Dalton He");
+                System.out.println("option name Threads type spin default 1 min 1 max " + THREADS_MAX);
+                System.out.println("option name Split Search type check default false");
+                System.out.println("option name Ponder type check default false");
+                System.out.println("option name MultiPV type spin default 1 min 1 max " + MULTIPV_MAX);
+                System.out.println("option name Hash type spin default " + HASH_DEFAULT + " min 1 max " + HASH_MAX);
+                System.out.println("option name Clear Hash type button");
+                System.out.println("option name Cache File type string default <empty>");
+                System.out.println("option name Cache Size type spin default " + CACHE_DEFAULT + " min 1 max " + CACHE_MAX);
+                System.out.println("option name Cache Read Only type check default false");
+                System.out.println("option name Eval File type string default " + NETWORK_FILE);
                 System.out.println("uciok");
             }		
 
             if (command.equals("isready"))
                 System.out.println("readyok");
 
-            if (command.equals("quit"))
+            if (command.equals("quit")) {
+                stopSearch();
+                engine.closeCache();
                 System.exit(0);
+            }
+
+            if (command.equals("stop"))
+                engine.stop();
+
+            if (command.equals("ponderhit"))
+                engine.ponderHit();
+
+            if (command.startsWith("setoption")) {
+                stopSearch();
+                String name  = extractOption(command, "name");
+                String value = extractOption(command, "value");
+                if (name.equalsIgnoreCase("Threads"))
+                    engine.threads = Math.max(1, Math.min(THREADS_MAX, Integer.parseInt(value)));
+                else if (name.equalsIgnoreCase("Split Search"))
+                    engine.splitSearch = value.equalsIgnoreCase("true");
+                else if (name.equalsIgnoreCase("MultiPV"))
+                    engine.multiPV = Math.max(1, Math.min(MULTIPV_MAX, Integer.parseInt(value)));
+                else if (name.equalsIgnoreCase("Hash"))
+                    engine.setHashSize(Integer.parseInt(value));
+                else if (name.equalsIgnoreCase("Clear Hash"))
+                    engine.clearHash();
+                else if (name.equalsIgnoreCase("Cache File")) {
+                    cacheFile = (value.equals("<empty>") ? "" : value);
+                    engine.openCache(cacheFile, cacheSize, cacheReadOnly);
+                }
+                else if (name.equalsIgnoreCase("Cache Size")) {
+                    cacheSize = Integer.parseInt(value);
+                    engine.openCache(cacheFile, cacheSize, cacheReadOnly);
+                }
+                else if (name.equalsIgnoreCase("Cache Read Only")) {
+                    cacheReadOnly = value.equalsIgnoreCase("true");
+                    engine.openCache(cacheFile, cacheSize, cacheReadOnly);
+                }
+                else if (name.equalsIgnoreCase("Eval File")) {
+                    evalFile = (value.equals("<empty>") ? "" : value);
+                    engine.loadNetwork(evalFile);
+                }
+            }
 
-            if (command.equals("ucinewgame"))
-                Savant.initNewGame();
+            if (command.equals("ucinewgame")) {
+                stopSearch();
+                engine.initialize();
+            }
 
             if (command.startsWith("position")) {
+                stopSearch();
                 if (command.contains("startpos")) pos = new Position();
                 else                              pos = new Position(extractFEN(command));
                 String[] moveList = extractMoves(command);
@@ -47,23 +112,69 @@ public class UCI implements Types{
             }
 
             if (command.startsWith("go")) {
+                stopSearch();
                 String[] split = command.split(" ");
-                int wtime = 0, btime = 0, winc = 0, binc = 0;
+                int wtime = 0, btime = 0, winc = 0, binc = 0, depth = DEPTH_MAX;
                 for (int i = 0; i < split.length; i++) {
-                    if      (split[i].equals("wtime")) wtime = Integer.parseInt(split[i+1]);
+                    if      (split[i].equals("depth")) depth = Integer.parseInt(split[i+1]);
+                    else if (split[i].equals("wtime")) wtime = Integer.parseInt(split[i+1]);
                     else if (split[i].equals("btime")) btime = Integer.parseInt(split[i+1]);
                     else if (split[i].equals("winc"))  winc  = Integer.parseInt(split[i+1]);
                     else if (split[i].equals("binc"))  binc  = Integer.parseInt(split[i+1]);
                 }
-                Engine.timeLeft  = (pos.toMove == WHITE ? wtime : btime);
-                Engine.increment = (pos.toMove == WHITE ? winc  : binc);
-                Engine.search(pos);
-                
-                System.out.println("bestmove " + Engine.bestMove.longNot());
+                engine.timeLeft   = (pos.toMove == WHITE ? wtime : btime);
+                engine.increment  = (pos.toMove == WHITE ? winc  : binc);
+                engine.depthLimit = depth;
+                engine.pondering  = command.contains("ponder");
+                engine.infinite   = command.contains("infinite");
+
+                // The best move is sent by the search thread once the search has finished
+                searchThread = engine.startSearch(pos, () -> printBestMove());
+            }
+
+            // Non-standard command: compare the parallel search with a single-threaded search
+            if (command.startsWith("bench")) {
+                stopSearch();
+                String[] split = command.split(" ");
+                int depth = (split.length > 1 ? Integer.parseInt(split[1]) : 10);
+                Engine.parallelBench((pos == null ? new Position() : pos), depth,
+                                     engine.threads, engine.splitSearch, engine.hashSize);
+            }
+
+            // Non-standard command: print the evaluation breakdown of the current position
+            if (command.equals("eval")) {
+                stopSearch();
+                System.out.print(engine.trace(pos == null ? new Position() : pos));
             }
         }
     }
 
+    /**
+     * Stops the background search, if there is one, and waits for it to finish.
+     */
+    private static void stopSearch() {
+        if (searchThread == null) return;
+        engine.stop();
+        try {
+            searchThread.join();
+        } catch (InterruptedException ex) {};
+        searchThread = null;
+    }
+
+    /**
+     * Sends the best move, together with the expected reply from the PV for pondering.
+     */
+    private static void printBestMove() {
+        if (engine.bestMove == null) {
+            System.out.println("bestmove 0000");
+            return;
+        }
+        String result = "bestmove " + engine.bestMove.longNot();
+        if (engine.pv.size() > 1 && engine.pv.get(0).equals(engine.bestMove))
+            result += " ponder " + engine.pv.get(1).longNot();
+        System.out.println(result);
+    }
+
     /**
      * Extracts the FEN string from the given UCI position command.
      */
@@ -79,6 +190,21 @@ public class UCI implements Types{
         return fen;
     }
 
+    /**
+     * Extracts the name or value field from the given UCI setoption command.
+     */
+    private static String extractOption(String command, String field) {
+        String[] split = command.split(" ");
+        String result = "";
+        for (int i = 0; i < split.length; i++) {
+            if (!split[i].equals(field)) continue;
+            for (int j = i + 1; j < split.length && !split[j].equals("value"); j++)
+                result += split[j] + " ";
+            break;
+        }
+        return result.trim();
+    }
+
     /**
      * Extracts the moves from the given UCI position command.
      */
@@ -15,12 +15,20 @@ public class Zobrist implements Types {
     public static long b_short_castle;
     public static long b_long_castle;
     public static long[][][] moves;
+    public static long[][] material;
+
+    // The tables are shared by all positions and engines, so they are generated only once
+    static {
+        initialize();
+    }
 
     /**
      * Initializes the random number tables used for zobrist key generation.
      */
-    public static void initialize() {
-        Random r  = new Random();
+    private static void initialize() {
+        // A fixed seed gives the same keys in every run, so that keys stored in the analysis
+        // cache file stay valid
+        Random r  = new Random(ZOBRIST_SEED);
         pieces    = new long[13][120];      // pieces[pieceType][index]
         castling  = new long[16];           // castling[0bKQkq]
         enpassant = new long[8];            // enpassant[file]
@@ -37,6 +45,12 @@ public class Zobrist implements Types {
 
         for (int i = 0; i < 8; i++)
             enpassant[i] = Math.abs(r.nextLong());
+
+        // Drawn last, so that the keys above stay the same
+        material = new long[13][16]; // material[pieceType][count]
+        for (int i = 0; i < 13; i++)
+            for (int j = 0; j < 16; j++)
+                material[i][j] = Math.abs(r.nextLong());
         
         for (int i = 0; i < 13; i++)
             for (int j = 0; j < 120; j++)
@@ -68,4 +82,30 @@ public class Zobrist implements Types {
 
         return key;
     }
+
+    /**
+     * Returns the zobrist key of the pawns of the position. Like the position key, it is
+     * incrementally updated in makeMove().
+     */
+    public static long getPawnKey(Position pos) {
+        long key = 0;
+        for (int index : pos.pieces)
+            if (Math.abs(pos.board[index]) == PAWN)
+                key ^= pieces[pos.board[index] + 6][index];
+
+        return key;
+    }
+
+    /**
+     * Returns the material key of the position, which depends only on the number of pieces of
+     * each type. The n-th piece of a type adds the key material[pieceType][n - 1].
+     */
+    public static long getMaterialKey(Position pos) {
+        long key = 0;
+        for (int i = 0; i < 13; i++)
+            for (int j = 0; j < Long.bitCount(pos.pieceBB[i]); j++)
+                key ^= material[i][j];
+
+        return key;
+    }
 }
@@ -0,0 +1,79 @@
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 
+ * @author Dalton He
+ * created 12-09-18
+ * 
+ */
+public class TTStressTest implements Types {
+    // Stress test for concurrent access to the transposition table. Several threads store and
+    // probe random keys in a small table, so that writes to the same slot collide as often as
+    // possible. The fields of every stored entry are derived from its key, so any entry mixed
+    // from two different stores is recognized. The test fails if a probe returns such an entry.
+    //
+    //     java -cp bin TTStressTest [threads] [seconds]
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = (args.length > 0 ? Integer.parseInt(args[0]) : 4);
+        int seconds = (args.length > 1 ? Integer.parseInt(args[1]) : 10);
+
+        TranspositionTable tt = new TranspositionTable(1024);
+        AtomicLong probes     = new AtomicLong();
+        AtomicLong hits       = new AtomicLong();
+        AtomicLong corrupted  = new AtomicLong();
+        long end = System.currentTimeMillis() + 1000L * seconds;
+
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            Random random = new Random(t);
+            workers[t] = new Thread(() -> {
+                long p = 0, h = 0, c = 0;
+                while (System.currentTimeMillis() < end) {
+                    for (int i = 0; i < 4096; i++) {
+                        // 8 keys per entry on average, nonnegative like zobrist keys
+                        long key = (random.nextInt(8192) * 0x9E3779B97F4A7C15L) >>> 1;
+                        long expected = entry(key);
+                        if (random.nextBoolean())
+                            tt.add(key, TranspositionTable.move(expected),
+                                   TranspositionTable.depth(expected),
+                                   TranspositionTable.eval(expected),
+                                   TranspositionTable.type(expected),
+                                   TranspositionTable.staticEval(expected));
+                        else {
+                            long entry = tt.get(key);
+                            p++;
+                            if (entry != 0) {
+                                h++;
+                                if (entry != expected) c++;
+                            }
+                        }
+                    }
+                }
+                probes.addAndGet(p);
+                hits.addAndGet(h);
+                corrupted.addAndGet(c);
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) worker.join();
+
+        System.out.println("probes " + probes.get() + " hits " + hits.get()
+                           + " corrupted " + corrupted.get());
+        if (hits.get() == 0 || corrupted.get() != 0) {
+            System.out.println("FAIL");
+            System.exit(1);
+        }
+        System.out.println("PASS");
+    }
+
+    /**
+     * Returns the entry stored for the given key.
+     */
+    private static long entry(long key) {
+        int depth = ((key & 0x10000) != 0 ? DEPTH_QS : (int) (key >>> 17) & 63);
+        return TranspositionTable.pack((int) key, depth, (short) (key >>> 24),
+                                       (int) ((key >>> 40) % 3), (short) (key >>> 44));
+    }
+}